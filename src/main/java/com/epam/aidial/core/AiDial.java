@@ -4,6 +4,8 @@ import com.epam.aidial.core.cache.CacheClientFactory;
 import com.epam.aidial.core.config.ConfigStore;
 import com.epam.aidial.core.config.FileConfigStore;
 import com.epam.aidial.core.config.Storage;
+import com.epam.aidial.core.limiter.MemoryBudget;
+import com.epam.aidial.core.limiter.RateLimitStore;
 import com.epam.aidial.core.limiter.RateLimiter;
 import com.epam.aidial.core.log.GfLogStore;
 import com.epam.aidial.core.log.LogStore;
@@ -31,6 +33,7 @@ import io.micrometer.registry.otlp.OtlpMeterRegistry;
 import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.sdk.autoconfigure.AutoConfiguredOpenTelemetrySdk;
 import io.vertx.config.spi.utils.JsonObjectHelper;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
@@ -52,11 +55,13 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.function.LongSupplier;
 import java.util.function.Supplier;
@@ -69,6 +74,7 @@ public class AiDial {
     private JsonObject settings;
     private Vertx vertx;
     private HttpServer server;
+    private String serverDeployment;
     private HttpClient client;
 
     private RedissonClient redis;
@@ -94,7 +100,7 @@ public class AiDial {
             vertx = Vertx.vertx(vertxOptions);
             client = vertx.createHttpClient(new HttpClientOptions(settings("client")));
 
-            LogStore logStore = new GfLogStore(vertx);
+            LogStore logStore = new GfLogStore(vertx, settings("log"));
             UpstreamRouteProvider upstreamRouteProvider = new UpstreamRouteProvider();
 
             if (accessTokenValidator == null) {
@@ -109,8 +115,9 @@ public class AiDial {
 
             redis = CacheClientFactory.create(settings("redis"));
 
-            LockService lockService = new LockService(redis, storage.getPrefix());
+            LockService lockService = new LockService(redis, storage.getPrefix(), settings("resources").getBoolean("legacyLocks", false));
             resourceService = new ResourceService(vertx, redis, storage, lockService, settings("resources"), storage.getPrefix());
+            resourceService.subscribeAllResources(event -> upstreamRouteProvider.evict(event.getUrl()));
             InvitationService invitationService = new InvitationService(resourceService, encryptionService, settings("invitations"));
             ShareService shareService = new ShareService(resourceService, invitationService, encryptionService);
             RuleService ruleService = new RuleService(resourceService);
@@ -118,7 +125,7 @@ public class AiDial {
             NotificationService notificationService = new NotificationService(resourceService, encryptionService);
             PublicationService publicationService = new PublicationService(encryptionService, resourceService, accessService,
                     ruleService, notificationService, generator, clock);
-            RateLimiter rateLimiter = new RateLimiter(vertx, resourceService);
+            RateLimiter rateLimiter = new RateLimiter(vertx, new RateLimitStore(redis, storage.getPrefix()));
 
             ApiKeyStore apiKeyStore = new ApiKeyStore(resourceService, vertx);
             ConfigStore configStore = new FileConfigStore(vertx, settings("config"), apiKeyStore, upstreamRouteProvider);
@@ -126,21 +133,38 @@ public class AiDial {
             ApplicationService applicationService = new ApplicationService(encryptionService, resourceService,
                     settings("applications"));
 
-            TokenStatsTracker tokenStatsTracker = new TokenStatsTracker(vertx, resourceService);
+            TokenStatsTracker tokenStatsTracker = new TokenStatsTracker(vertx, redis, storage.getPrefix(),
+                    settings("resources").getLong("ephemeralExpiration"));
             ResourceOperationService resourceOperationService = new ResourceOperationService(applicationService, resourceService, invitationService, shareService);
 
             HeartbeatService heartbeatService = new HeartbeatService(
                     vertx, settings("resources").getLong("heartbeatPeriod"));
+            JsonObject proxySettings = settings("proxy");
+            MemoryBudget memoryBudget = new MemoryBudget(proxySettings.getLong("bodyMemoryLimit", 0L),
+                    proxySettings.getInteger("bodyMemoryRetryAfter", 1));
             proxy = new Proxy(vertx, client, configStore, logStore,
                     rateLimiter, upstreamRouteProvider, accessTokenValidator,
                     storage, encryptionService, apiKeyStore, tokenStatsTracker, resourceService, invitationService,
                     shareService, publicationService, accessService, lockService, resourceOperationService, ruleService,
-                    notificationService, applicationService, heartbeatService, version());
-
-            server = vertx.createHttpServer(new HttpServerOptions(settings("server"))).requestHandler(proxy);
-            open(server, HttpServer::listen);
-
-            log.info("Proxy started on {}", server.actualPort());
+                    notificationService, applicationService, heartbeatService, memoryBudget,
+                    proxySettings.getInteger("responseCaptureLimit"),
+                    proxySettings.getInteger("requestCaptureLimit"), version());
+
+            JsonObject serverSettings = settings("server");
+            HttpServerOptions serverOptions = new HttpServerOptions(serverSettings);
+            // every instance gets its own event loop and shares the port with others
+            int instances = serverSettings.getInteger("instances", vertxOptions.getEventLoopPoolSize());
+            List<ProxyVerticle> verticles = new CopyOnWriteArrayList<>();
+            DeploymentOptions deploymentOptions = new DeploymentOptions().setInstances(instances);
+
+            serverDeployment = open(vertx.deployVerticle(() -> {
+                ProxyVerticle verticle = new ProxyVerticle(proxy, serverOptions);
+                verticles.add(verticle);
+                return verticle;
+            }, deploymentOptions));
+            server = verticles.get(0).getServer();
+
+            log.info("Proxy started on {} with {} server instances", server.actualPort(), instances);
         } catch (Throwable e) {
             log.error("Proxy failed to start:", e);
             stop();
@@ -151,7 +175,7 @@ public class AiDial {
     @VisibleForTesting
     void stop() {
         try {
-            close(server, HttpServer::close);
+            close(serverDeployment, deployment -> vertx.undeploy(deployment));
             close(client, HttpClient::close);
             close(resourceService);
             close(vertx, Vertx::close);
@@ -231,10 +255,10 @@ public class AiDial {
         return JsonObjectHelper.from(properties, false, true);
     }
 
-    private static <R> void open(R resource, AsyncOpener<R> opener) throws Exception {
+    private static <R> R open(Future<R> opening) throws Exception {
         CompletableFuture<R> startup = new CompletableFuture<>();
-        opener.open(resource).onSuccess(startup::complete).onFailure(startup::completeExceptionally);
-        startup.get(15, TimeUnit.SECONDS);
+        opening.onSuccess(startup::complete).onFailure(startup::completeExceptionally);
+        return startup.get(15, TimeUnit.SECONDS);
     }
 
     private static <R> void close(R resource, AsyncCloser<R> closer) throws Exception {
@@ -257,10 +281,6 @@ public class AiDial {
         }
     }
 
-    private interface AsyncOpener<R> {
-        Future<R> open(R resource);
-    }
-
     private interface AsyncCloser<R> {
         Future<Void> close(R resource);
     }
@@ -5,6 +5,7 @@ import com.epam.aidial.core.config.Config;
 import com.epam.aidial.core.config.ConfigStore;
 import com.epam.aidial.core.controller.Controller;
 import com.epam.aidial.core.controller.ControllerSelector;
+import com.epam.aidial.core.limiter.MemoryBudget;
 import com.epam.aidial.core.limiter.RateLimiter;
 import com.epam.aidial.core.log.LogStore;
 import com.epam.aidial.core.security.AccessService;
@@ -32,6 +33,7 @@ import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.SpanContext;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpHeaders;
@@ -47,6 +49,7 @@ import lombok.extern.slf4j.Slf4j;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 import static com.epam.aidial.core.security.AccessTokenValidator.extractTokenFromHeader;
 
@@ -94,6 +97,15 @@ public class Proxy implements Handler<HttpServerRequest> {
     private final NotificationService notificationService;
     private final ApplicationService applicationService;
     private final HeartbeatService heartbeatService;
+    private final MemoryBudget memoryBudget;
+    /**
+     * Max number of bytes of a streaming response to keep for logging.
+     */
+    private final int responseCaptureLimit;
+    /**
+     * Max number of bytes of a request body streamed to the origin to keep for retries and logging.
+     */
+    private final int requestCaptureLimit;
     private final String version;
 
     @Override
@@ -171,6 +183,10 @@ public class Proxy implements Handler<HttpServerRequest> {
             return;
         }
 
+        // the bodies of files are streamed to the storage, the rest or their captured part are kept in memory till the end of the request
+        boolean bufferedBody = (requestMethod == HttpMethod.POST || requestMethod == HttpMethod.PUT)
+                && (contentType == null || !contentType.startsWith("multipart/form-data"));
+
         Config config = configStore.load();
         SpanContext spanContext = Span.current().getSpanContext();
         String traceId = spanContext.getTraceId();
@@ -178,7 +194,7 @@ public class Proxy implements Handler<HttpServerRequest> {
 
         request.pause();
         Future<AuthorizationResult> authorizationResultFuture = authorizeRequest(request);
-        authorizationResultFuture.compose(result -> processAuthorizationResult(result.extractedClaims, config, request, result.apiKeyData, traceId, spanId))
+        authorizationResultFuture.compose(result -> processAuthorizationResult(result.extractedClaims, config, request, result.apiKeyData, traceId, spanId, bufferedBody))
                 .onFailure(error -> handleError(error, request))
                 .onComplete(ignore -> request.resume());
     }
@@ -245,6 +261,34 @@ public class Proxy implements Handler<HttpServerRequest> {
 
     }
 
+    /**
+     * @return the lease of the request body or null if it doesn't fit into the memory budget.
+     *     Only the captured part of a body streamed to the origin is kept in memory.
+     */
+    @Nullable
+    private MemoryBudget.Lease acquireMemory(HttpServerRequest request, boolean streamedBody) {
+        int size = requestBodySize(request);
+        MemoryBudget.Lease memoryLease = memoryBudget.tryAcquire(streamedBody ? Math.min(size, requestCaptureLimit) : size);
+        if (memoryLease != null) {
+            request.response().endHandler(ignore -> memoryLease.release());
+            request.response().closeHandler(ignore -> memoryLease.release());
+        }
+        return memoryLease;
+    }
+
+    /**
+     * @return the number of bytes the request body takes in memory: the Content-Length
+     *     or the max size of a request body if the body is chunked, because it can't be known up front.
+     */
+    private static int requestBodySize(HttpServerRequest request) {
+        MultiMap headers = request.headers();
+        if (headers.get(HttpHeaders.CONTENT_LENGTH) != null) {
+            return ProxyUtil.contentLength(request, REQUEST_BODY_MAX_SIZE_BYTES);
+        }
+        return HttpHeaders.CHUNKED.toString().equalsIgnoreCase(headers.get(HttpHeaders.TRANSFER_ENCODING))
+                ? REQUEST_BODY_MAX_SIZE_BYTES : 0;
+    }
+
     private static void enableCors(HttpServerRequest request) {
         HttpServerResponse response = request.response();
         response.putHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
@@ -265,11 +309,21 @@ public class Proxy implements Handler<HttpServerRequest> {
 
     @SneakyThrows
     private Future<?> processAuthorizationResult(ExtractedClaims extractedClaims, Config config,
-                                                 HttpServerRequest request, ApiKeyData apiKeyData, String traceId, String spanId) {
+                                                 HttpServerRequest request, ApiKeyData apiKeyData, String traceId, String spanId,
+                                                 boolean bufferedBody) {
         Future<?> future;
         try {
             ProxyContext context = new ProxyContext(this, config, request, apiKeyData, extractedClaims, traceId, spanId);
             Controller controller = ControllerSelector.select(this, context);
+            if (bufferedBody) {
+                MemoryBudget.Lease memoryLease = acquireMemory(request, context.isStreamedBody());
+                if (memoryLease == null) {
+                    request.response().putHeader(HttpHeaders.RETRY_AFTER, Integer.toString(memoryBudget.getRetryAfter()));
+                    respond(request, HttpStatus.SERVICE_UNAVAILABLE, "Too many requests in flight");
+                    return Future.succeededFuture();
+                }
+                context.setMemoryLease(memoryLease);
+            }
             future = controller.handle();
         } catch (Exception t) {
             future = Future.failedFuture(t);
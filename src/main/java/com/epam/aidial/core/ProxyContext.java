@@ -4,6 +4,7 @@ import com.epam.aidial.core.config.ApiKeyData;
 import com.epam.aidial.core.config.Config;
 import com.epam.aidial.core.config.Deployment;
 import com.epam.aidial.core.config.Key;
+import com.epam.aidial.core.limiter.MemoryBudget;
 import com.epam.aidial.core.security.ExtractedClaims;
 import com.epam.aidial.core.token.TokenUsage;
 import com.epam.aidial.core.upstream.UpstreamRoute;
@@ -11,6 +12,7 @@ import com.epam.aidial.core.util.BufferingReadStream;
 import com.epam.aidial.core.util.HttpException;
 import com.epam.aidial.core.util.HttpStatus;
 import com.epam.aidial.core.util.ProxyUtil;
+import com.epam.aidial.core.util.StreamingResponseAssembler;
 import io.vertx.core.Future;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpClientRequest;
@@ -75,7 +77,11 @@ public class ProxyContext {
     private HttpClientResponse proxyResponse;
     private Buffer requestBody;
     private Buffer responseBody;
+    private BufferingReadStream requestStream; // received from client, set if the request body is streamed to origin
     private BufferingReadStream responseStream; // received from origin
+    private StreamingResponseAssembler responseAssembler; // assembles the streaming response for the log
+    private MemoryBudget.Lease memoryLease; // accounts the bodies kept in memory, null if the request has no body
+    private boolean streamedBody; // the request body is streamed to origin, only its captured part is kept in memory
     private long requestTimestamp;
     private long requestBodyTimestamp;
     private long proxyConnectTimestamp;
@@ -0,0 +1,35 @@
+package com.epam.aidial.core;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Promise;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hosts one HTTP server bound to the event loop of the verticle.
+ * Multiple instances share the same port and the same {@link Proxy}, so all services behind the proxy must be thread-safe.
+ */
+@Slf4j
+public class ProxyVerticle extends AbstractVerticle {
+
+    private final Proxy proxy;
+    private final HttpServerOptions options;
+    @Getter
+    private volatile HttpServer server;
+
+    public ProxyVerticle(Proxy proxy, HttpServerOptions options) {
+        this.proxy = proxy;
+        this.options = options;
+    }
+
+    @Override
+    public void start(Promise<Void> promise) {
+        server = vertx.createHttpServer(options).requestHandler(proxy);
+        server.listen()
+                .onSuccess(ignore -> log.debug("Proxy server is listening on {}", server.actualPort()))
+                .<Void>mapEmpty()
+                .onComplete(promise);
+    }
+}
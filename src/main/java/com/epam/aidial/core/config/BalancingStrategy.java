@@ -0,0 +1,16 @@
+package com.epam.aidial.core.config;
+
+/**
+ * Strategy of picking an upstream within a tier.
+ */
+public enum BalancingStrategy {
+    /**
+     * Spreads the requests according to the weights of the upstreams.
+     */
+    WEIGHTED_ROUND_ROBIN,
+    /**
+     * Picks two upstreams at random in proportion to their weights and sends the request to the one
+     * with the lower latency and fewer requests waiting for the response.
+     */
+    POWER_OF_TWO_CHOICES
+}
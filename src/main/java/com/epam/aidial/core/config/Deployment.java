@@ -36,4 +36,16 @@ public abstract class Deployment {
      * The field contains a list of keywords aka tags which describe the deployment, e.g. code-gen, text2image.
      */
     private List<String> descriptionKeywords = List.of();
+    /**
+     * Overrides of the log settings for the deployment.
+     */
+    private Logging logging;
+    /**
+     * Policy of writing the streaming responses of the deployment to the client. The chunks are written as they arrive if not set.
+     */
+    private FlushPolicy flushPolicy;
+    /**
+     * Timeouts of the responses from the upstreams of the deployment. The timeouts of the shared client are used if not set.
+     */
+    private UpstreamTimeouts timeouts;
 }
\ No newline at end of file
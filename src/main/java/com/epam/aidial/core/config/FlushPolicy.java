@@ -0,0 +1,19 @@
+package com.epam.aidial.core.config;
+
+import lombok.Data;
+
+/**
+ * Policy of writing a streaming response to the client: the chunks after the first one are coalesced
+ * for up to the delay or up to the size before they are written.
+ */
+@Data
+public class FlushPolicy {
+    /**
+     * Max time in milliseconds a chunk is held before it is written. Zero or negative to flush by size only.
+     */
+    private long delay;
+    /**
+     * Number of bytes held which triggers the write. Zero or negative to flush by delay only.
+     */
+    private int size;
+}
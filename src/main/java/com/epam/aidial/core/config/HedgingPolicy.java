@@ -0,0 +1,24 @@
+package com.epam.aidial.core.config;
+
+import lombok.Data;
+
+/**
+ * Policy of hedging requests to a model: if the response headers are not received within the delay,
+ * the request is sent to another upstream of the same tier and the response which comes first is used.
+ * The delay is the percentile of the recent times to the response headers bounded by the min and max delay.
+ */
+@Data
+public class HedgingPolicy {
+    /**
+     * Percentile of the recent times to the response headers from 0 to 100.
+     */
+    private double percentile = 95;
+    /**
+     * Min delay in milliseconds before the hedged request is sent.
+     */
+    private long minDelay = 10;
+    /**
+     * Max delay in milliseconds before the hedged request is sent. It's used until enough responses are received.
+     */
+    private long maxDelay = 10_000;
+}
@@ -0,0 +1,18 @@
+package com.epam.aidial.core.config;
+
+import lombok.Data;
+
+/**
+ * Overrides of the log settings for a deployment. Unset fields fall back to the log settings.
+ */
+@Data
+public class Logging {
+    /**
+     * Max size in bytes of a request or response body written to the log. Zero or negative for no limit.
+     */
+    private Integer maxBodySize;
+    /**
+     * Fraction of the requests written to the log, from 0 to 1.
+     */
+    private Double sampleRate;
+}
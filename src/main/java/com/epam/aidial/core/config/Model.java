@@ -15,6 +15,10 @@ public class Model extends Deployment {
     private TokenLimits limits;
     private Pricing pricing;
     private List<Upstream> upstreams = List.of();
+    // strategy of picking an upstream within a tier, weighted round-robin if not set
+    private BalancingStrategy balancingStrategy;
+    // if it's set then a slow request is sent to another upstream of the same tier as well
+    private HedgingPolicy hedgingPolicy;
     // if it's set then the model name is overridden with that name in the request body to the model adapter
     private String overrideName;
 }
\ No newline at end of file
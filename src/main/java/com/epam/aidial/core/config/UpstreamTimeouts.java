@@ -0,0 +1,19 @@
+package com.epam.aidial.core.config;
+
+import lombok.Data;
+
+/**
+ * Timeouts of the responses from the upstreams of a deployment. The request is retried with the next upstream
+ * if the upstream times out before any byte of the response body is sent to the client.
+ */
+@Data
+public class UpstreamTimeouts {
+    /**
+     * Max time in milliseconds from sending the request to receiving the response headers. Zero or negative to disable.
+     */
+    private long firstByte;
+    /**
+     * Max time in milliseconds between the response headers and the chunks of the response body. Zero or negative to disable.
+     */
+    private long chunk;
+}
@@ -76,7 +76,13 @@ public class ControllerSelector {
             controller = selectPut(proxy, context, path);
         }
 
-        return (controller == null) ? new RouteController(proxy, context) : controller;
+        if (controller == null) {
+            RouteController routeController = new RouteController(proxy, context);
+            context.setStreamedBody(routeController.isStreamedBody());
+            controller = routeController;
+        }
+
+        return controller;
     }
 
     private static Controller selectGet(Proxy proxy, ProxyContext context, String path) {
@@ -230,6 +236,7 @@ public class ControllerSelector {
                     .map(Features::getRateEndpoint)
                     .orElse(null);
 
+            context.setStreamedBody(true);
             DeploymentFeatureController controller = new DeploymentFeatureController(proxy, context);
             return () -> controller.handle(deploymentId, getter, false);
         }
@@ -243,6 +250,7 @@ public class ControllerSelector {
                     .map(Features::getTokenizeEndpoint)
                     .orElse(null);
 
+            context.setStreamedBody(true);
             DeploymentFeatureController controller = new DeploymentFeatureController(proxy, context);
             return () -> controller.handle(deploymentId, getter, true);
         }
@@ -256,6 +264,7 @@ public class ControllerSelector {
                     .map(Features::getTruncatePromptEndpoint)
                     .orElse(null);
 
+            context.setStreamedBody(true);
             DeploymentFeatureController controller = new DeploymentFeatureController(proxy, context);
             return () -> controller.handle(deploymentId, getter, true);
         }
@@ -12,7 +12,6 @@ import io.vertx.core.Future;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.http.HttpClientResponse;
-import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.http.RequestOptions;
@@ -33,43 +32,53 @@ public class DeploymentFeatureController {
         this.context = context;
     }
 
+    /**
+     * The body of the request is streamed to the origin, so the returned future completes when the origin is connected:
+     * the request stays paused till then.
+     */
     public Future<?> handle(String deploymentId, Function<Deployment, String> endpointGetter, boolean requireEndpoint) {
-        DeploymentController.selectDeployment(context, deploymentId).map(dep -> {
+        return DeploymentController.selectDeployment(context, deploymentId).compose(dep -> {
             String endpoint = endpointGetter.apply(dep);
             context.setDeployment(dep);
-            context.getRequest().body()
-                    .onSuccess(requestBody -> handleRequestBody(endpoint, requireEndpoint, requestBody))
-                    .onFailure(this::handleRequestBodyError);
-            return dep;
+            if (endpoint == null) {
+                context.getRequest().body()
+                        .onSuccess(requestBody -> handleRequestBody(requireEndpoint, requestBody))
+                        .onFailure(this::handleRequestBodyError);
+                return Future.<Void>succeededFuture();
+            }
+            return sendRequest(endpoint);
         }).otherwise(error -> {
             handleRequestError(deploymentId, error);
             return null;
         });
-
-        return Future.succeededFuture();
     }
 
-    @SneakyThrows
-    private void handleRequestBody(String endpoint, boolean requireEndpoint, Buffer requestBody) {
+    private void handleRequestBody(boolean requireEndpoint, Buffer requestBody) {
         context.setRequestBody(requestBody);
 
-        if (endpoint == null) {
-            if (requireEndpoint) {
-                context.respond(HttpStatus.FORBIDDEN, "Forbidden deployment");
-            } else {
-                context.respond(HttpStatus.OK);
-                proxy.getLogStore().save(context);
-            }
-            return;
+        if (requireEndpoint) {
+            context.respond(HttpStatus.FORBIDDEN, "Forbidden deployment");
+        } else {
+            context.respond(HttpStatus.OK);
+            proxy.getLogStore().save(context);
         }
+    }
 
+    @SneakyThrows
+    private Future<Void> sendRequest(String endpoint) {
         RequestOptions options = new RequestOptions()
                 .setAbsoluteURI(new URL(endpoint))
                 .setMethod(context.getRequest().method());
 
-        proxy.getClient().request(options)
+        HttpServerRequest request = context.getRequest();
+        context.setRequestStream(new BufferingReadStream(request,
+                ProxyUtil.contentLength(request, 1024), null, proxy.getRequestCaptureLimit()));
+
+        return proxy.getClient().request(options)
                 .onSuccess(this::handleProxyRequest)
-                .onFailure(this::handleProxyConnectionError);
+                .onFailure(this::handleProxyConnectionError)
+                .<Void>mapEmpty()
+                .otherwiseEmpty();
     }
 
     private void handleRequestError(String deploymentId, Throwable error) {
@@ -95,11 +104,14 @@ public class DeploymentFeatureController {
         context.setProxyRequest(proxyRequest);
 
         ProxyUtil.copyHeaders(request.headers(), proxyRequest.headers());
+        ProxyUtil.copyContentLength(request, proxyRequest);
 
-        Buffer proxyRequestBody = context.getRequestBody();
-        proxyRequest.putHeader(HttpHeaders.CONTENT_LENGTH, Integer.toString(proxyRequestBody.length()));
+        context.getRequestStream().pipe()
+                .endOnFailure(false)
+                .to(proxyRequest)
+                .onFailure(error -> proxyRequest.reset());
 
-        proxyRequest.send(proxyRequestBody)
+        proxyRequest.response()
                 .onSuccess(this::handleProxyResponse)
                 .onFailure(this::handleProxyRequestError);
     }
@@ -134,6 +146,7 @@ public class DeploymentFeatureController {
      */
     private void handleResponse() {
         Buffer proxyResponseBody = context.getResponseStream().getContent();
+        context.setRequestBody(context.getRequestStream().getContent());
         context.setResponseBody(proxyResponseBody);
         proxy.getLogStore().save(context);
     }
@@ -158,6 +171,11 @@ public class DeploymentFeatureController {
      * Called when proxy failed to send request to the origin.
      */
     private void handleProxyRequestError(Throwable error) {
+        if (context.getRequestStream().getError() != null) {
+            handleRequestBodyError(context.getRequestStream().getError());
+            return;
+        }
+
         log.warn("Can't send request to origin: {}", error.getMessage());
         context.respond(HttpStatus.BAD_GATEWAY, "deployment responded with error");
     }
@@ -3,18 +3,26 @@ package com.epam.aidial.core.controller;
 import com.epam.aidial.core.Proxy;
 import com.epam.aidial.core.ProxyContext;
 import com.epam.aidial.core.config.ApiKeyData;
+import com.epam.aidial.core.config.Assistant;
 import com.epam.aidial.core.config.Config;
 import com.epam.aidial.core.config.Deployment;
+import com.epam.aidial.core.config.FlushPolicy;
+import com.epam.aidial.core.config.HedgingPolicy;
 import com.epam.aidial.core.config.Interceptor;
 import com.epam.aidial.core.config.Model;
 import com.epam.aidial.core.config.ModelType;
 import com.epam.aidial.core.config.Pricing;
 import com.epam.aidial.core.config.Upstream;
+import com.epam.aidial.core.config.UpstreamTimeouts;
 import com.epam.aidial.core.data.ErrorData;
+import com.epam.aidial.core.function.AssembleResponseFn;
 import com.epam.aidial.core.function.BaseRequestFunction;
+import com.epam.aidial.core.function.BaseResponseFunction;
 import com.epam.aidial.core.function.CollectRequestAttachmentsFn;
 import com.epam.aidial.core.function.CollectRequestDataFn;
 import com.epam.aidial.core.function.CollectResponseAttachmentsFn;
+import com.epam.aidial.core.function.CollectResponseUsageFn;
+import com.epam.aidial.core.function.ResponseFunctionChain;
 import com.epam.aidial.core.function.enhancement.ApplyDefaultDeploymentSettingsFn;
 import com.epam.aidial.core.function.enhancement.EnhanceAssistantRequestFn;
 import com.epam.aidial.core.function.enhancement.EnhanceModelRequestFn;
@@ -22,16 +30,18 @@ import com.epam.aidial.core.limiter.RateLimitResult;
 import com.epam.aidial.core.service.PermissionDeniedException;
 import com.epam.aidial.core.service.ResourceNotFoundException;
 import com.epam.aidial.core.token.TokenUsage;
-import com.epam.aidial.core.token.TokenUsageParser;
 import com.epam.aidial.core.upstream.DeploymentUpstreamProvider;
 import com.epam.aidial.core.upstream.UpstreamProvider;
 import com.epam.aidial.core.upstream.UpstreamRoute;
 import com.epam.aidial.core.util.BufferingReadStream;
+import com.epam.aidial.core.util.CoalescingWriteStream;
 import com.epam.aidial.core.util.HttpStatus;
 import com.epam.aidial.core.util.ModelCostCalculator;
 import com.epam.aidial.core.util.ProxyUtil;
+import com.epam.aidial.core.util.StreamingResponseAssembler;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.annotations.VisibleForTesting;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.netty.buffer.ByteBufInputStream;
 import io.vertx.core.Future;
 import io.vertx.core.MultiMap;
@@ -42,6 +52,7 @@ import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.http.RequestOptions;
+import io.vertx.micrometer.backends.BackendRegistries;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -49,9 +60,15 @@ import org.apache.commons.lang3.StringUtils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
 
 @Slf4j
 public class DeploymentPostController {
@@ -59,14 +76,58 @@ public class DeploymentPostController {
     private static final Set<Integer> DEFAULT_RETRIABLE_HTTP_CODES = Set.of(HttpStatus.TOO_MANY_REQUESTS.getCode(),
             HttpStatus.BAD_GATEWAY.getCode(), HttpStatus.GATEWAY_TIMEOUT.getCode(),
             HttpStatus.SERVICE_UNAVAILABLE.getCode());
+    /**
+     * Attached files are referenced from these fields of chat completion and embeddings requests.
+     */
+    private static final Set<String> ATTACHMENT_FIELDS = Set.of("custom_content", "custom_input");
 
     private final Proxy proxy;
     private final ProxyContext context;
+    /**
+     * Source of the timestamps in millis.
+     */
+    private final LongSupplier clock;
     private final List<BaseRequestFunction<ObjectNode>> enhancementFunctions;
+    /**
+     * Collects token usage and the completion length from the events of the streaming response or from the non-streaming response.
+     */
+    private final CollectResponseUsageFn responseUsage;
+    /**
+     * Length of the prompt without whitespaces for the models priced by characters. Null if it is not counted.
+     */
+    @Nullable
+    private Integer promptLength;
+    /**
+     * Requests to the origin waiting for the response headers by their routes: the primary request and the hedged one if any.
+     * The request is null while connecting.
+     */
+    private final Map<UpstreamRoute, HttpClientRequest> pendingRequests = new IdentityHashMap<>(2);
+    /**
+     * Set when the response headers to send to the client are received, the requests responding later are dropped.
+     */
+    private boolean responded;
+    private boolean hedgeScheduled;
+    private long hedgeTimer = -1;
+    private long chunkTimer = -1;
+    /**
+     * Set when the origin didn't send a chunk of the response body within the timeout.
+     */
+    private boolean timedOut;
+    /**
+     * Headers of the client response before the headers of the origin are copied, restored when the request is retried after the timeout.
+     */
+    private MultiMap clientHeaders;
 
     public DeploymentPostController(Proxy proxy, ProxyContext context) {
+        this(proxy, context, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    DeploymentPostController(Proxy proxy, ProxyContext context, LongSupplier clock) {
         this.proxy = proxy;
         this.context = context;
+        this.clock = clock;
+        this.responseUsage = new CollectResponseUsageFn(proxy, context);
         this.enhancementFunctions = List.of(new CollectRequestAttachmentsFn(proxy, context),
                 new CollectRequestDataFn(proxy, context),
                 new ApplyDefaultDeploymentSettingsFn(proxy, context),
@@ -179,15 +240,17 @@ public class DeploymentPostController {
         }
 
         setupProxyApiKeyData(new ApiKeyData());
-        return proxy.getTokenStatsTracker().startSpan(context).map(ignore -> {
-            context.getRequest().body()
-                    .onSuccess(body -> proxy.getVertx().executeBlocking(() -> {
-                        handleRequestBody(body);
-                        return null;
-                    }, false).onFailure(this::handleError))
-                    .onFailure(this::handleRequestBodyError);
-            return null;
-        });
+        // the span is started while the body is received, it must exist before the upstream is called
+        Future<Void> startSpanFuture = proxy.getTokenStatsTracker().startSpan(context);
+        context.getRequest().body()
+                .onSuccess(body -> startSpanFuture
+                        .compose(ignore -> proxy.getVertx().executeBlocking(() -> {
+                            handleRequestBody(body);
+                            return null;
+                        }, false))
+                        .onFailure(this::handleError))
+                .onFailure(this::handleRequestBodyError);
+        return Future.succeededFuture();
     }
 
     private void setupProxyApiKeyData(ApiKeyData proxyApiKeyData) {
@@ -211,12 +274,20 @@ public class DeploymentPostController {
         respond(HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
-    @SneakyThrows
     private void sendRequest() {
-        UpstreamRoute route = context.getUpstreamRoute();
+        sendRequest(context.getUpstreamRoute());
+    }
+
+    @SneakyThrows
+    private void sendRequest(UpstreamRoute route) {
         HttpServerRequest request = context.getRequest();
 
         if (!route.available()) {
+            pendingRequests.remove(route);
+            if (!pendingRequests.isEmpty()) {
+                return; // the other request may still respond
+            }
+
             log.error("No route. Trace: {}. Span: {}. Key: {}. Deployment: {}. User sub: {}",
                     context.getTraceId(), context.getSpanId(),
                     context.getProject(), context.getDeployment().getName(), context.getUserSub());
@@ -227,6 +298,7 @@ public class DeploymentPostController {
 
         Upstream upstream = route.get();
         Objects.requireNonNull(upstream);
+        pendingRequests.put(route, null);
 
         String uri = buildUri(context);
         RequestOptions options = new RequestOptions()
@@ -234,8 +306,52 @@ public class DeploymentPostController {
                 .setMethod(request.method());
 
         proxy.getClient().request(options)
-                .onSuccess(this::handleProxyRequest)
-                .onFailure(this::handleProxyConnectionError);
+                .onSuccess(proxyRequest -> handleProxyRequest(route, proxyRequest))
+                .onFailure(error -> handleProxyConnectionError(route, error));
+    }
+
+    /**
+     * Sends the request to another upstream of the same tier if the origin is slow to respond.
+     * The delay is the percentile of the recent times to the response headers of the model.
+     */
+    private void scheduleHedgedRequest() {
+        if (hedgeScheduled || !(context.getDeployment() instanceof Model model) || model.getHedgingPolicy() == null) {
+            return;
+        }
+
+        hedgeScheduled = true;
+        HedgingPolicy policy = model.getHedgingPolicy();
+        long delay = context.getUpstreamRoute().latencyPercentile(policy.getPercentile());
+        delay = (delay < 0) ? policy.getMaxDelay() : Math.min(Math.max(delay, policy.getMinDelay()), policy.getMaxDelay());
+        hedgeTimer = proxy.getVertx().setTimer(Math.max(delay, 1), ignore -> sendHedgedRequest());
+    }
+
+    private void sendHedgedRequest() {
+        hedgeTimer = -1;
+        if (responded || pendingRequests.size() != 1) {
+            return;
+        }
+
+        UpstreamRoute route = pendingRequests.keySet().iterator().next();
+        UpstreamRoute hedgeRoute = route.hedge();
+        if (hedgeRoute == null) {
+            return;
+        }
+
+        log.info("Hedging request to origin. Trace: {}. Span: {}. Key: {}. Deployment: {}. Upstream: {}. Hedged upstream: {}",
+                context.getTraceId(), context.getSpanId(),
+                context.getProject(), context.getDeployment().getName(),
+                route.get().getEndpoint(), hedgeRoute.get().getEndpoint());
+
+        countHedge("sent");
+        sendRequest(hedgeRoute);
+    }
+
+    private void cancelHedgedRequest() {
+        if (hedgeTimer >= 0) {
+            proxy.getVertx().cancelTimer(hedgeTimer);
+            hedgeTimer = -1;
+        }
     }
 
     @VisibleForTesting
@@ -246,15 +362,35 @@ public class DeploymentPostController {
                 context.getProject(), deployment.getName(), requestBody.length());
 
         context.setRequestBody(requestBody);
-        context.setRequestBodyTimestamp(System.currentTimeMillis());
+        context.setRequestBodyTimestamp(clock.getAsLong());
+
+        try {
+            ObjectNode tree = readShallowTree(requestBody);
+            boolean shallow = (tree != null);
+
+            if (!shallow) {
+                try (InputStream stream = new ByteBufInputStream(requestBody.getByteBuf())) {
+                    tree = (ObjectNode) ProxyUtil.MAPPER.readTree(stream);
+                }
+            }
 
-        try (InputStream stream = new ByteBufInputStream(requestBody.getByteBuf())) {
-            ObjectNode tree = (ObjectNode) ProxyUtil.MAPPER.readTree(stream);
             Throwable error = ProxyUtil.processChain(tree, enhancementFunctions);
             if (error != null) {
                 finalizeRequest();
                 return;
             }
+
+            if (enhancementFunctions.stream().anyMatch(BaseRequestFunction::isChanged)) {
+                if (shallow) {
+                    throw new IllegalStateException("Shallow request body must not be changed");
+                }
+
+                context.setRequestBody(Buffer.buffer(ProxyUtil.MAPPER.writeValueAsBytes(tree)));
+            }
+
+            if (ModelCostCalculator.isPricedByChars(deployment)) {
+                promptLength = countPromptLength((Model) deployment, tree);
+            }
         } catch (IOException e) {
             respond(HttpStatus.BAD_REQUEST);
             log.warn("Can't parse JSON request body. Trace: {}. Span: {}. Error:",
@@ -265,19 +401,74 @@ public class DeploymentPostController {
         sendRequest();
     }
 
+    @Nullable
+    private Integer countPromptLength(Model model, ObjectNode tree) {
+        try {
+            return ModelCostCalculator.getPromptLength(model.getType(), tree);
+        } catch (Throwable e) {
+            log.warn("Failed to count prompt length for model={}. Trace: {}. Span: {}",
+                    model.getName(), context.getTraceId(), context.getSpanId(), e);
+            return null;
+        }
+    }
+
     /**
-     * Called when proxy connected to the origin.
+     * Reads the top-level fields of the request body without building the full tree when the enhancement functions
+     * neither change the body nor look into nested values: no attachments, no model override, all defaults are set explicitly.
+     * The original body is forwarded as is in this case.
+     *
+     * @return the shallow tree or null if the full tree is required.
      */
+    @Nullable
+    private ObjectNode readShallowTree(Buffer requestBody) throws IOException {
+        Deployment deployment = context.getDeployment();
+        if (deployment instanceof Assistant || (deployment instanceof Model model && model.getOverrideName() != null)
+                || ModelCostCalculator.isPricedByChars(deployment)) {
+            return null;
+        }
+
+        ObjectNode tree;
+        try (InputStream stream = new ByteBufInputStream(requestBody.getByteBuf())) {
+            tree = ProxyUtil.readShallowTree(stream, ATTACHMENT_FIELDS);
+        }
+
+        if (tree == null) {
+            return null;
+        }
+
+        for (String key : deployment.getDefaults().keySet()) {
+            if (!tree.has(key)) {
+                return null;
+            }
+        }
+
+        return tree;
+    }
+
     @VisibleForTesting
     void handleProxyRequest(HttpClientRequest proxyRequest) {
+        handleProxyRequest(context.getUpstreamRoute(), proxyRequest);
+    }
+
+    /**
+     * Called when proxy connected to the origin.
+     */
+    private void handleProxyRequest(UpstreamRoute route, HttpClientRequest proxyRequest) {
+        if (responded) {
+            proxyRequest.reset(); // the other request has responded
+            return;
+        }
+
+        pendingRequests.put(route, proxyRequest);
         log.info("Connected to origin. Trace: {}. Span: {}. Key: {}. Deployment: {}. Address: {}",
                 context.getTraceId(), context.getSpanId(),
                 context.getProject(), context.getDeployment().getName(),
                 proxyRequest.connection().remoteAddress());
 
         HttpServerRequest request = context.getRequest();
+        long connectTimestamp = clock.getAsLong();
         context.setProxyRequest(proxyRequest);
-        context.setProxyConnectTimestamp(System.currentTimeMillis());
+        context.setProxyConnectTimestamp(connectTimestamp);
 
         Deployment deployment = context.getDeployment();
         MultiMap excludeHeaders = MultiMap.caseInsensitiveMultiMap();
@@ -291,7 +482,7 @@ public class DeploymentPostController {
         proxyRequest.headers().add(Proxy.HEADER_API_KEY, proxyApiKeyData.getPerRequestKey());
 
         if (context.getDeployment() instanceof Model model && !model.getUpstreams().isEmpty()) {
-            Upstream upstream = context.getUpstreamRoute().get();
+            Upstream upstream = route.get();
             proxyRequest.putHeader(Proxy.HEADER_UPSTREAM_ENDPOINT, upstream.getEndpoint());
             proxyRequest.putHeader(Proxy.HEADER_UPSTREAM_KEY, upstream.getKey());
             proxyRequest.putHeader(Proxy.HEADER_UPSTREAM_EXTRA_DATA, upstream.getExtraData());
@@ -301,16 +492,37 @@ public class DeploymentPostController {
         proxyRequest.putHeader(HttpHeaders.CONTENT_LENGTH, Integer.toString(requestBody.length()));
         context.getRequestHeaders().forEach(proxyRequest::putHeader);
 
-        proxyRequest.send(requestBody)
-                .onSuccess(this::handleProxyResponse)
-                .onFailure(this::handleProxyResponseError);
+        // the upstream is loaded by the request from now till the response headers
+        route.start();
+        Future<HttpClientResponse> responseFuture = proxyRequest.send(requestBody);
+        UpstreamTimeouts timeouts = context.getDeployment().getTimeouts();
+        if (timeouts != null && timeouts.getFirstByte() > 0) {
+            // the request is reset, so it fails and is retried with the next upstream
+            long timeout = timeouts.getFirstByte();
+            long timer = proxy.getVertx().setTimer(timeout, ignore -> {
+                if (!responseFuture.isComplete()) {
+                    proxyRequest.reset(0, new TimeoutException("No response headers from origin within " + timeout + " ms"));
+                }
+            });
+            responseFuture.onComplete(ignore -> proxy.getVertx().cancelTimer(timer));
+        }
+
+        responseFuture
+                .onSuccess(proxyResponse -> handleProxyResponse(route, proxyResponse, connectTimestamp))
+                .onFailure(error -> handleProxyResponseError(route, proxyRequest, error));
+
+        scheduleHedgedRequest();
     }
 
     /**
      * Called when proxy received the response headers from the origin.
      */
-    private void handleProxyResponse(HttpClientResponse proxyResponse) {
-        UpstreamRoute upstreamRoute = context.getUpstreamRoute();
+    private void handleProxyResponse(UpstreamRoute upstreamRoute, HttpClientResponse proxyResponse, long connectTimestamp) {
+        if (responded) {
+            proxyResponse.request().reset(); // the other request has responded
+            return;
+        }
+
         Upstream currentUpstream = upstreamRoute.get();
         log.info("Received header from origin. Trace: {}. Span: {}. Key: {}. Deployment: {}. Endpoint: {}. Upstream: {}. Status: {}. Headers: {}",
                 context.getTraceId(), context.getSpanId(),
@@ -321,25 +533,44 @@ public class DeploymentPostController {
         int responseStatusCode = proxyResponse.statusCode();
         if (isRetriableError(responseStatusCode)) {
             upstreamRoute.fail(proxyResponse);
-            // get next upstream
-            upstreamRoute.next();
-            sendRequest(); // try next
+            retryRequest(upstreamRoute);
             return;
         }
 
+        completeHedging(upstreamRoute, proxyResponse.request(), connectTimestamp);
+
         if (responseStatusCode == 200) {
             upstreamRoute.succeed();
         } else if (isFailedStatusCode(responseStatusCode)) {
             upstreamRoute.fail(proxyResponse);
+        } else {
+            upstreamRoute.release();
         }
 
-        CollectResponseAttachmentsFn handler = context.isStreamingRequest() ? new CollectResponseAttachmentsFn(proxy, context) : null;
+        BaseResponseFunction handler = null;
+        // a non-streaming response is a single JSON document which is parsed as a whole, so it is captured entirely
+        int captureLimit = Integer.MAX_VALUE;
+
+        if (context.isStreamingRequest()) {
+            List<BaseResponseFunction> functions = new ArrayList<>();
+            functions.add(new CollectResponseAttachmentsFn(proxy, context));
+            functions.add(responseUsage);
+
+            // the assembler needs every event, so it is added only if the response is going to be logged
+            if (!context.isSecuredApiKey() && proxy.getLogStore().isEnabled()) {
+                context.setResponseAssembler(new StreamingResponseAssembler());
+                functions.add(new AssembleResponseFn(proxy, context));
+            }
+
+            handler = new ResponseFunctionChain(functions);
+            captureLimit = proxy.getResponseCaptureLimit();
+        }
 
         BufferingReadStream responseStream = new BufferingReadStream(proxyResponse,
-                ProxyUtil.contentLength(proxyResponse, 1024), handler);
+                ProxyUtil.contentLength(proxyResponse, 1024), handler, captureLimit, context.getMemoryLease(), clock);
 
         context.setProxyResponse(proxyResponse);
-        context.setProxyResponseTimestamp(System.currentTimeMillis());
+        context.setProxyResponseTimestamp(clock.getAsLong());
         context.setResponseStream(responseStream);
 
         HttpServerResponse response = context.getResponse();
@@ -347,17 +578,101 @@ public class DeploymentPostController {
         response.setChunked(true);
         response.setStatusCode(proxyResponse.statusCode());
 
+        clientHeaders = MultiMap.caseInsensitiveMultiMap().addAll(response.headers());
         ProxyUtil.copyHeaders(proxyResponse.headers(), response.headers());
         response.putHeader(Proxy.HEADER_UPSTREAM_ATTEMPTS, Integer.toString(upstreamRoute.used()));
 
+        FlushPolicy flushPolicy = context.getDeployment().getFlushPolicy();
+        CoalescingWriteStream coalescingResponse = (context.isStreamingRequest() && flushPolicy != null)
+                ? new CoalescingWriteStream(proxy.getVertx(), response, flushPolicy) : null;
+
+        UpstreamTimeouts timeouts = context.getDeployment().getTimeouts();
+        if (timeouts != null && timeouts.getChunk() > 0) {
+            scheduleChunkTimeout(responseStream, timeouts.getChunk(), timeouts.getChunk());
+        }
+
         responseStream.pipe()
                 .endOnFailure(false)
                 .endOnSuccess(false)
-                .to(response)
+                .to(coalescingResponse == null ? response : coalescingResponse)
+                .andThen(ignore -> {
+                    cancelChunkTimeout();
+                    // the held chunks go before the last chunks and the end of the response
+                    if (coalescingResponse != null) {
+                        coalescingResponse.flush();
+                    }
+                })
                 .onSuccess(ignored -> handleResponse(responseStream))
                 .onFailure(this::handleResponseError);
     }
 
+    /**
+     * Resets the request to the origin if no chunk of the response body is received within the timeout.
+     * The time the client doesn't accept the response is not counted.
+     */
+    private void scheduleChunkTimeout(BufferingReadStream responseStream, long timeout, long delay) {
+        chunkTimer = proxy.getVertx().setTimer(delay, ignore -> {
+            chunkTimer = -1;
+            long idle = clock.getAsLong() - responseStream.getChunkTimestamp();
+            if (context.getResponse().writeQueueFull()) {
+                scheduleChunkTimeout(responseStream, timeout, timeout);
+            } else if (idle < timeout) {
+                scheduleChunkTimeout(responseStream, timeout, timeout - idle);
+            } else {
+                timedOut = true;
+                context.getProxyRequest().reset(0, new TimeoutException("No response chunk from origin within " + timeout + " ms"));
+            }
+        });
+    }
+
+    private void cancelChunkTimeout() {
+        if (chunkTimer >= 0) {
+            proxy.getVertx().cancelTimer(chunkTimer);
+            chunkTimer = -1;
+        }
+    }
+
+    /**
+     * Sends the failed request to the next upstream unless the other request is still waited for.
+     */
+    private void retryRequest(UpstreamRoute route) {
+        pendingRequests.remove(route);
+        if (!pendingRequests.isEmpty()) {
+            return; // the other request may still respond
+        }
+
+        // get next upstream
+        route.next();
+        sendRequest(route); // try next
+    }
+
+    /**
+     * Makes the request which responded the one to proxy and cancels the other request if any,
+     * so the usage is accounted for the upstream which responded first only.
+     * The connect timestamp of the context is restored as well, as the other request might have connected later.
+     */
+    private void completeHedging(UpstreamRoute route, HttpClientRequest proxyRequest, long connectTimestamp) {
+        responded = true;
+        cancelHedgedRequest();
+        pendingRequests.remove(route);
+
+        for (Map.Entry<UpstreamRoute, HttpClientRequest> entry : pendingRequests.entrySet()) {
+            entry.getKey().cancel();
+            if (entry.getValue() != null) {
+                entry.getValue().reset(); // drop connection to stop origin response
+            }
+        }
+
+        if (route != context.getUpstreamRoute()) {
+            countHedge("won");
+        }
+
+        pendingRequests.clear();
+        context.setUpstreamRoute(route);
+        context.setProxyRequest(proxyRequest);
+        context.setProxyConnectTimestamp(connectTimestamp);
+    }
+
     private boolean isRetriableError(int statusCode) {
         return DEFAULT_RETRIABLE_HTTP_CODES.contains(statusCode) || context.getConfig().getRetriableErrorCodes().contains(statusCode);
     }
@@ -368,36 +683,53 @@ public class DeploymentPostController {
 
     /**
      * Called when proxy sent response from the origin to the client.
+     * <p>
+     *     The response to a client ends right away and the accounting is done afterwards.
+     *     A deployment calling another one aggregates the usage and accesses the attachments of the call as soon as the response ends,
+     *     so the response to a deployment ends after the accounting.
+     *     The per-request key is invalidated after the accounting in both cases.
+     * </p>
      */
     @VisibleForTesting
     void handleResponse(BufferingReadStream responseStream) {
         Buffer responseBody = context.getResponseStream().getContent();
         context.setResponseBody(responseBody);
-        context.setResponseBodyTimestamp(System.currentTimeMillis());
-        Future<TokenUsage> tokenUsageFuture = collectTokenUsage(responseBody);
+        context.setResponseBodyTimestamp(clock.getAsLong());
 
-        Future<Void> handleResponseFuture = tokenUsageFuture.transform(result -> {
-            if (result.failed()) {
-                log.warn("Failed to collect token usage. Trace: {}. Span: {}",
-                        context.getTraceId(), context.getSpanId(), result.cause());
-            }
-            return collectResponseAttachments(responseBody);
-        });
+        boolean nested = context.getApiKeyData().getPerRequestKey() != null;
+        if (!nested) {
+            responseStream.end(context.getResponse());
+        }
+
+        Future<TokenUsage> handleResponseFuture = Future.succeededFuture()
+                .compose(ignore -> collectResponseData(responseBody))
+                .transform(result -> {
+                    if (result.failed()) {
+                        log.warn("Failed to collect attachments from response. Trace: {}. Span: {}",
+                                context.getTraceId(), context.getSpanId(), result.cause());
+                        countFailure("attachments");
+                    }
+                    return collectTokenUsage();
+                });
 
         handleResponseFuture.onComplete(result -> {
             if (result.failed()) {
-                log.warn("Failed to collect attachments from response. Trace: {}. Span: {}",
+                log.warn("Failed to collect token usage. Trace: {}. Span: {}",
                         context.getTraceId(), context.getSpanId(), result.cause());
+                countFailure("token_usage");
+            }
+            if (nested) {
+                responseStream.end(context.getResponse());
             }
             completeProxyResponse(responseStream);
         });
     }
 
-    private Future<TokenUsage> collectTokenUsage(Buffer responseBody) {
+    private Future<TokenUsage> collectTokenUsage() {
         Future<TokenUsage> tokenUsageFuture = Future.succeededFuture();
         if (context.getDeployment() instanceof Model model) {
             if (context.getResponse().getStatusCode() == HttpStatus.OK.getCode()) {
-                TokenUsage tokenUsage = TokenUsageParser.parse(responseBody);
+                TokenUsage tokenUsage = responseUsage.getTokenUsage();
                 if (tokenUsage == null) {
                     Pricing pricing = model.getPricing();
                     if (pricing == null || "token".equals(pricing.getUnit())) {
@@ -407,15 +739,18 @@ public class DeploymentPostController {
                                 context.getDeployment().getEndpoint(),
                                 context.getUpstreamRoute().get().getEndpoint(),
                                 context.getResponse().getStatusCode(),
-                                context.getResponseBody().length());
+                                context.getResponseStream().getLength());
                     }
                     tokenUsage = new TokenUsage();
                 }
                 context.setTokenUsage(tokenUsage);
-                proxy.getRateLimiter().increase(context).onFailure(error -> log.warn("Failed to increase limit. Trace: {}. Span: {}",
-                        context.getTraceId(), context.getSpanId(), error));
+                proxy.getRateLimiter().increase(context).onFailure(error -> {
+                    log.warn("Failed to increase limit. Trace: {}. Span: {}", context.getTraceId(), context.getSpanId(), error);
+                    countFailure("rate_limit");
+                });
                 try {
-                    BigDecimal cost = ModelCostCalculator.calculate(context);
+                    // the request body is parsed again only if the prompt length is not counted, the completion is always counted on the fly
+                    BigDecimal cost = ModelCostCalculator.calculate(context, promptLength, responseUsage.getCompletionLength());
                     tokenUsage.setCost(cost);
                     tokenUsage.setAggCost(cost);
                 } catch (Throwable e) {
@@ -430,13 +765,17 @@ public class DeploymentPostController {
         return tokenUsageFuture;
     }
 
-    private Future<Void> collectResponseAttachments(Buffer responseBody) {
+    /**
+     * Collects token usage, the completion length and attachments from the non-streaming response parsing it once.
+     * They are collected from the events of the streaming response while it is streamed.
+     */
+    private Future<Void> collectResponseData(Buffer responseBody) {
         if (context.isStreamingRequest()) {
             return Future.succeededFuture();
         }
         try (InputStream stream = new ByteBufInputStream(responseBody.getByteBuf())) {
             ObjectNode tree = (ObjectNode) ProxyUtil.MAPPER.readTree(stream);
-            var fn = new CollectResponseAttachmentsFn(proxy, context);
+            var fn = new ResponseFunctionChain(List.of(responseUsage, new CollectResponseAttachmentsFn(proxy, context)));
             return fn.apply(tree);
         } catch (IOException e) {
             log.warn("Can't parse JSON response body. Trace: {}. Span: {}. Error:",
@@ -446,9 +785,6 @@ public class DeploymentPostController {
     }
 
     private void completeProxyResponse(BufferingReadStream responseStream) {
-        HttpServerResponse response = context.getResponse();
-        responseStream.end(response);
-
         proxy.getLogStore().save(context);
 
         log.info("Sent response to client. Trace: {}. Span: {}. Key: {}. Deployment: {}. Endpoint: {}. Upstream: {}. Status: {}. Length: {}."
@@ -458,7 +794,7 @@ public class DeploymentPostController {
                 context.getDeployment().getEndpoint(),
                 context.getUpstreamRoute().get().getEndpoint(),
                 context.getResponse().getStatusCode(),
-                context.getResponseBody().length(),
+                responseStream.getLength(),
                 context.getResponseBodyTimestamp() - context.getRequestTimestamp(),
                 context.getRequestBodyTimestamp() - context.getRequestTimestamp(),
                 context.getProxyConnectTimestamp() - context.getRequestBodyTimestamp(),
@@ -482,7 +818,13 @@ public class DeploymentPostController {
     /**
      * Called when proxy failed to connect to the origin.
      */
-    private void handleProxyConnectionError(Throwable error) {
+    private void handleProxyConnectionError(UpstreamRoute route, Throwable error) {
+        route.cancel();
+        pendingRequests.remove(route);
+        if (responded || !pendingRequests.isEmpty()) {
+            return; // the other request has responded or may still respond
+        }
+
         log.warn("Can't connect to origin. Trace: {}. Span: {}. Key: {}. Deployment: {}. Address: {}. Error: {}",
                 context.getTraceId(), context.getSpanId(),
                 context.getProject(), context.getDeployment().getName(),
@@ -494,24 +836,46 @@ public class DeploymentPostController {
     /**
      * Called when proxy failed to receive response header from origin.
      */
-    private void handleProxyResponseError(Throwable error) {
-        UpstreamRoute upstreamRoute = context.getUpstreamRoute();
+    private void handleProxyResponseError(UpstreamRoute upstreamRoute, HttpClientRequest proxyRequest, Throwable error) {
+        if (responded) {
+            return; // the request is cancelled as the other request has responded
+        }
+
         log.warn("Proxy failed to receive response header from origin. Trace: {}. Span: {}. Key: {}. Deployment: {}. Address: {}. Error:",
                 context.getTraceId(), context.getSpanId(),
                 context.getProject(), context.getDeployment().getName(),
-                context.getProxyRequest().connection().remoteAddress(),
+                proxyRequest.connection().remoteAddress(),
                 error);
 
         // for 5xx errors we use exponential backoff strategy, so passing retryAfterSeconds parameter makes no sense
         upstreamRoute.fail(HttpStatus.BAD_GATEWAY);
-        upstreamRoute.next();
-        sendRequest();
+        retryRequest(upstreamRoute);
     }
 
     /**
      * Called when proxy failed to send response to the client.
      */
     private void handleResponseError(Throwable error) {
+        if (timedOut) {
+            timedOut = false;
+            UpstreamRoute upstreamRoute = context.getUpstreamRoute();
+            upstreamRoute.fail(HttpStatus.GATEWAY_TIMEOUT);
+
+            // nothing is sent to the client yet, so the request is retried with the next upstream
+            if (context.getResponseStream().getLength() == 0 && !context.getResponse().headWritten()) {
+                log.warn("Origin timed out before sending response body. Trace: {}. Span: {}. Key: {}. Deployment: {}. Upstream: {}. Error: {}",
+                        context.getTraceId(), context.getSpanId(),
+                        context.getProject(), context.getDeployment().getName(),
+                        upstreamRoute.get().getEndpoint(), error.getMessage());
+
+                responded = false;
+                // only the headers of the timed out response are dropped, the ones set by the proxy, e.g. CORS, stay
+                context.getResponse().headers().clear().addAll(clientHeaders);
+                retryRequest(upstreamRoute);
+                return;
+            }
+        }
+
         log.warn("Can't send response to client. Trace: {}. Span: {}. Error:",
                 context.getTraceId(), context.getSpanId(), error);
 
@@ -565,7 +929,17 @@ public class DeploymentPostController {
     }
 
     private void finalizeRequest() {
-        proxy.getTokenStatsTracker().endSpan(context).onFailure(error -> log.error("Error occurred at completing span", error));
+        // the routes of the requests which are over without the response headers don't load the upstreams anymore
+        UpstreamRoute route = context.getUpstreamRoute();
+        if (route != null) {
+            route.cancel();
+        }
+        pendingRequests.keySet().forEach(UpstreamRoute::cancel);
+
+        proxy.getTokenStatsTracker().endSpan(context).onFailure(error -> {
+            log.error("Error occurred at completing span", error);
+            countFailure("span");
+        });
         ApiKeyData proxyApiKeyData = context.getProxyApiKeyData();
         if (proxyApiKeyData != null) {
             proxy.getApiKeyStore().invalidatePerRequestApiKey(proxyApiKeyData)
@@ -573,7 +947,27 @@ public class DeploymentPostController {
                         if (!invalidated) {
                             log.warn("Per request is not removed: {}", proxyApiKeyData.getPerRequestKey());
                         }
-                    }).onFailure(error -> log.error("error occurred on invalidating per-request key", error));
+                    }).onFailure(error -> {
+                        log.error("error occurred on invalidating per-request key", error);
+                        countFailure("per_request_key");
+                    });
+        }
+    }
+
+    private void countHedge(String outcome) {
+        MeterRegistry registry = BackendRegistries.getDefaultNow();
+        if (registry != null) {
+            registry.counter("aidial.upstream.hedges", "deployment", context.getDeployment().getName(), "outcome", outcome).increment();
+        }
+    }
+
+    /**
+     * Counts the failures of the accounting done after the response, so they are visible in the metrics besides the log.
+     */
+    private static void countFailure(String operation) {
+        MeterRegistry registry = BackendRegistries.getDefaultNow();
+        if (registry != null) {
+            registry.counter("aidial.accounting.failures", "operation", operation).increment();
         }
     }
 }
\ No newline at end of file
@@ -15,7 +15,6 @@ import io.vertx.core.Future;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.http.HttpClientResponse;
-import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
@@ -36,10 +35,11 @@ public class RouteController implements Controller {
 
     private final Proxy proxy;
     private final ProxyContext context;
+    private Route route;
 
     @Override
     public Future<?> handle() {
-        Route route = selectRoute();
+        Route route = getRoute();
         if (route == null) {
             log.warn("RouteController can't find a route to proceed the request: {}", getRequestUri());
             context.respond(HttpStatus.BAD_GATEWAY, "No route");
@@ -66,22 +66,40 @@ public class RouteController implements Controller {
 
             context.setRewritePath(route.isRewritePath());
             context.setUpstreamRoute(upstreamRoute);
-        } else {
-            context.getResponse().setStatusCode(response.getStatus());
-            context.setResponseBody(Buffer.buffer(response.getBody()));
+
+            // the body is streamed to the origin, the request stays paused till an origin is connected
+            HttpServerRequest request = context.getRequest();
+            context.setRequestStream(new BufferingReadStream(request,
+                    ProxyUtil.contentLength(request, 1024), null, proxy.getRequestCaptureLimit()));
+            return sendRequest().otherwiseEmpty();
         }
 
+        context.getResponse().setStatusCode(response.getStatus());
+        context.setResponseBody(Buffer.buffer(response.getBody()));
         context.getRequest().body()
                 .onSuccess(this::handleRequestBody)
                 .onFailure(this::handleRequestBodyError);
         return Future.succeededFuture();
     }
 
+    /**
+     * @return false if the route responds with the static response, which reads the whole request body.
+     */
+    boolean isStreamedBody() {
+        Route route = getRoute();
+        return route == null || route.getResponse() == null;
+    }
+
     String getRequestUri() {
         HttpServerRequest request = context.getRequest();
         return request.uri();
     }
 
+    /**
+     * Connects to the next available upstream.
+     *
+     * @return the future which completes when an origin is connected or no upstream is left.
+     */
     @SneakyThrows
     private Future<?> sendRequest() {
         UpstreamRoute route = context.getUpstreamRoute();
@@ -92,6 +110,12 @@ public class RouteController implements Controller {
             return context.respond(HttpStatus.BAD_GATEWAY, "No route");
         }
 
+        // the body can be sent again only if nothing is lost
+        if (context.getRequestStream().isTruncated()) {
+            log.warn("RouteController can't retry the request with the body over the capture limit: {}", getRequestUri());
+            return context.respond(HttpStatus.BAD_GATEWAY, "Request body is too large to retry");
+        }
+
         Upstream upstream = route.get();
         Objects.requireNonNull(upstream);
         RequestOptions options = new RequestOptions()
@@ -99,19 +123,16 @@ public class RouteController implements Controller {
                 .setMethod(request.method());
 
         return proxy.getClient().request(options)
-                .onSuccess(this::handleProxyRequest)
-                .onFailure(this::handleProxyConnectionError);
+                .compose(proxyRequest -> {
+                    handleProxyRequest(proxyRequest);
+                    return Future.succeededFuture();
+                }, this::handleProxyConnectionError);
     }
 
     private void handleRequestBody(Buffer requestBody) {
         context.setRequestBody(requestBody);
-
-        if (context.getResponseBody() == null) {
-            sendRequest();
-        } else {
-            context.getResponse().send(context.getResponseBody());
-            proxy.getLogStore().save(context);
-        }
+        context.getResponse().send(context.getResponseBody());
+        proxy.getLogStore().save(context);
     }
 
     /**
@@ -123,14 +144,30 @@ public class RouteController implements Controller {
         HttpServerRequest request = context.getRequest();
         context.setProxyRequest(proxyRequest);
 
-        Upstream upstream = context.getUpstreamRoute().get();
+        // a part of the body might have been read and lost by the failed attempt
+        if (context.getRequestStream().isTruncated()) {
+            log.warn("RouteController can't retry the request with the body over the capture limit: {}", getRequestUri());
+            proxyRequest.reset();
+            context.respond(HttpStatus.BAD_GATEWAY, "Request body is too large to retry");
+            return;
+        }
+
+        UpstreamRoute upstreamRoute = context.getUpstreamRoute();
+        Upstream upstream = upstreamRoute.get();
         ProxyUtil.copyHeaders(request.headers(), proxyRequest.headers());
+        ProxyUtil.copyContentLength(request, proxyRequest);
         proxyRequest.putHeader(Proxy.HEADER_API_KEY, upstream.getKey());
 
-        Buffer proxyRequestBody = context.getRequestBody();
-        proxyRequest.putHeader(HttpHeaders.CONTENT_LENGTH, Integer.toString(proxyRequestBody.length()));
+        // the upstream is loaded by the request from now till the response headers
+        upstreamRoute.start();
+
+        // the captured part of the body is replayed on retry, the rest is read from the client with backpressure
+        context.getRequestStream().pipe()
+                .endOnFailure(false)
+                .to(proxyRequest)
+                .onFailure(error -> proxyRequest.reset());
 
-        proxyRequest.send(proxyRequestBody)
+        proxyRequest.response()
                 .onSuccess(this::handleProxyResponse)
                 .onFailure(this::handleProxyRequestError);
     }
@@ -146,13 +183,18 @@ public class RouteController implements Controller {
         if (responseStatusCode == HttpStatus.TOO_MANY_REQUESTS.getCode()) {
             UpstreamRoute upstreamRoute = context.getUpstreamRoute();
             upstreamRoute.fail(proxyResponse);
-            upstreamRoute.next();
-            sendRequest(); // try next
-            return;
+            // the response is passed to the client if the body can't be sent again
+            if (!context.getRequestStream().isTruncated()) {
+                upstreamRoute.next();
+                sendRequest(); // try next
+                return;
+            }
         }
 
         if (responseStatusCode == 200) {
             context.getUpstreamRoute().succeed();
+        } else {
+            context.getUpstreamRoute().release();
         }
 
         BufferingReadStream proxyResponseStream = new BufferingReadStream(proxyResponse,
@@ -178,6 +220,7 @@ public class RouteController implements Controller {
      */
     private void handleResponse() {
         Buffer proxyResponseBody = context.getResponseStream().getContent();
+        context.setRequestBody(context.getRequestStream().getContent());
         context.setResponseBody(proxyResponseBody);
         proxy.getLogStore().save(context);
     }
@@ -187,25 +230,34 @@ public class RouteController implements Controller {
      */
     private void handleRequestBodyError(Throwable error) {
         log.warn("Failed to receive client body: {}", error.getMessage());
+        UpstreamRoute upstreamRoute = context.getUpstreamRoute();
+        if (upstreamRoute != null) {
+            upstreamRoute.cancel();
+        }
         context.respond(HttpStatus.UNPROCESSABLE_ENTITY, "Failed to receive body");
     }
 
     /**
      * Called when proxy failed to connect to the origin.
      */
-    private void handleProxyConnectionError(Throwable error) {
+    private Future<?> handleProxyConnectionError(Throwable error) {
         log.warn("Can't connect to origin: {}", error.getMessage());
         UpstreamRoute upstreamRoute = context.getUpstreamRoute();
         // for 5xx errors we use exponential backoff strategy, so passing retryAfterSeconds parameter makes no sense
         upstreamRoute.fail(HttpStatus.BAD_GATEWAY);
         upstreamRoute.next();
-        sendRequest(); // try next
+        return sendRequest(); // try next, nothing is read from the client yet
     }
 
     /**
      * Called when proxy failed to send request to the origin.
      */
     private void handleProxyRequestError(Throwable error) {
+        if (context.getRequestStream().getError() != null) {
+            handleRequestBodyError(context.getRequestStream().getError());
+            return;
+        }
+
         log.warn("Can't send request to origin: {}", error.getMessage());
         UpstreamRoute upstreamRoute = context.getUpstreamRoute();
         // for 5xx errors we use exponential backoff strategy, so passing retryAfterSeconds parameter makes no sense
@@ -223,6 +275,13 @@ public class RouteController implements Controller {
         context.getResponse().reset();     // drop connection, so that partial client response won't seem complete
     }
 
+    private Route getRoute() {
+        if (route == null) {
+            route = selectRoute();
+        }
+        return route;
+    }
+
     private Route selectRoute() {
         Config config = context.getConfig();
         HttpServerRequest request = context.getRequest();
@@ -0,0 +1,12 @@
+package com.epam.aidial.core.data;
+
+public enum ResourceDurability {
+    /**
+     * Resource is cached in Redis and eventually written back to the blob storage.
+     */
+    PERSISTENT,
+    /**
+     * Resource lives in Redis only and expires after a period of inactivity.
+     */
+    EPHEMERAL
+}
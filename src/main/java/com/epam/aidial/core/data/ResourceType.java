@@ -4,15 +4,26 @@ import lombok.Getter;
 
 @Getter
 public enum ResourceType {
-    FILE("files"), CONVERSATION("conversations"), PROMPT("prompts"), LIMIT("limits"),
+    FILE("files"), CONVERSATION("conversations"), PROMPT("prompts"), LIMIT("limits", ResourceDurability.EPHEMERAL),
     SHARED_WITH_ME("shared_with_me"), SHARED_BY_ME("shared_by_me"), INVITATION("invitations"),
-    PUBLICATION("publications"), RULES("rules"), API_KEY_DATA("api_key_data"), NOTIFICATION("notifications"),
-    APPLICATION("applications"), DEPLOYMENT_COST_STATS("deployment_cost_stats");
+    PUBLICATION("publications"), RULES("rules"), API_KEY_DATA("api_key_data", ResourceDurability.EPHEMERAL),
+    NOTIFICATION("notifications"), APPLICATION("applications"),
+    DEPLOYMENT_COST_STATS("deployment_cost_stats", ResourceDurability.EPHEMERAL);
 
     private final String group;
+    private final ResourceDurability durability;
 
     ResourceType(String group) {
+        this(group, ResourceDurability.PERSISTENT);
+    }
+
+    ResourceType(String group, ResourceDurability durability) {
         this.group = group;
+        this.durability = durability;
+    }
+
+    public boolean isEphemeral() {
+        return durability == ResourceDurability.EPHEMERAL;
     }
 
     public static ResourceType of(String group) {
@@ -0,0 +1,24 @@
+package com.epam.aidial.core.function;
+
+import com.epam.aidial.core.Proxy;
+import com.epam.aidial.core.ProxyContext;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.vertx.core.Future;
+
+/**
+ * Feeds the events of the streaming response to the assembler of the context, so the assembled response is ready for the log
+ * when the response ends.
+ * The assembler needs every event, so no event is skipped by the pre-scan of the parser while the function is in the chain.
+ */
+public class AssembleResponseFn extends BaseResponseFunction {
+
+    public AssembleResponseFn(Proxy proxy, ProxyContext context) {
+        super(proxy, context);
+    }
+
+    @Override
+    public Future<Void> apply(ObjectNode tree) {
+        context.getResponseAssembler().append(tree);
+        return Future.succeededFuture();
+    }
+}
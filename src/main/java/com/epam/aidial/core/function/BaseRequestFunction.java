@@ -2,11 +2,21 @@ package com.epam.aidial.core.function;
 
 import com.epam.aidial.core.Proxy;
 import com.epam.aidial.core.ProxyContext;
+import lombok.Getter;
 
 public abstract class BaseRequestFunction<T> extends BaseFunction<T, Throwable> {
 
+    /**
+     * Indicates whether the function modified the item, so the request body must be rebuilt from it.
+     */
+    @Getter
+    private boolean changed;
 
     public BaseRequestFunction(Proxy proxy, ProxyContext context) {
         super(proxy, context);
     }
+
+    protected void markChanged() {
+        changed = true;
+    }
 }
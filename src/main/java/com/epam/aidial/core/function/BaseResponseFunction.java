@@ -5,8 +5,20 @@ import com.epam.aidial.core.ProxyContext;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.vertx.core.Future;
 
+import java.util.Set;
+import javax.annotation.Nullable;
+
 public abstract class BaseResponseFunction extends BaseFunction<ObjectNode, Future<Void>> {
     public BaseResponseFunction(Proxy proxy, ProxyContext context) {
         super(proxy, context);
     }
+
+    /**
+     * @return the keys of the events the function is interested in or null if the function needs every event.
+     * The events of a streaming response without any of the keys are not parsed and not passed to the function.
+     */
+    @Nullable
+    public Set<String> eventKeys() {
+        return null;
+    }
 }
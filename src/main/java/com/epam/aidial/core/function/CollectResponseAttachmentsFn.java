@@ -38,7 +38,10 @@ public class CollectResponseAttachmentsFn extends BaseResponseFunction {
         }
     }
 
-
+    @Override
+    public Set<String> eventKeys() {
+        return Set.of("custom_content");
+    }
 
     private String updateAutoSharedAttachments(String json, Set<String> collectedUrls, String key) {
         ApiKeyData apiKeyData = ProxyUtil.convertToObject(json, ApiKeyData.class);
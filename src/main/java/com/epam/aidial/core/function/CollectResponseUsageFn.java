@@ -0,0 +1,54 @@
+package com.epam.aidial.core.function;
+
+import com.epam.aidial.core.Proxy;
+import com.epam.aidial.core.ProxyContext;
+import com.epam.aidial.core.token.TokenUsage;
+import com.epam.aidial.core.util.ModelCostCalculator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.vertx.core.Future;
+import lombok.Getter;
+
+import java.util.Set;
+
+/**
+ * Collects token usage and the length of the completion from each event of the streaming response or from the whole non-streaming response,
+ * so the numbers are ready when the response ends without keeping or parsing the response again.
+ * The usage from the last event which has it wins.
+ */
+public class CollectResponseUsageFn extends BaseResponseFunction {
+
+    @Getter
+    private TokenUsage tokenUsage;
+    /**
+     * Length of the completion without whitespaces. It is used to price the models by characters.
+     */
+    @Getter
+    private int completionLength;
+
+    public CollectResponseUsageFn(Proxy proxy, ProxyContext context) {
+        super(proxy, context);
+    }
+
+    @Override
+    public Future<Void> apply(ObjectNode tree) {
+        JsonNode usage = tree.get("usage");
+        if (usage != null && usage.isObject()) {
+            TokenUsage result = new TokenUsage();
+            result.setCompletionTokens(usage.path("completion_tokens").asLong());
+            result.setPromptTokens(usage.path("prompt_tokens").asLong());
+            result.setTotalTokens(usage.path("total_tokens").asLong());
+            tokenUsage = result;
+        }
+
+        completionLength += ModelCostCalculator.getCompletionLength(tree, context.isStreamingRequest());
+
+        return Future.succeededFuture();
+    }
+
+    @Override
+    public Set<String> eventKeys() {
+        // the completion length is counted from every event
+        return ModelCostCalculator.isPricedByChars(context.getDeployment()) ? null : Set.of("usage");
+    }
+}
@@ -0,0 +1,45 @@
+package com.epam.aidial.core.function;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.vertx.core.Future;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Applies all the functions to every event of the streaming response.
+ */
+public class ResponseFunctionChain extends BaseResponseFunction {
+
+    private final List<BaseResponseFunction> functions;
+
+    public ResponseFunctionChain(List<BaseResponseFunction> functions) {
+        super(null, null);
+        this.functions = functions;
+    }
+
+    @Override
+    public Future<Void> apply(ObjectNode tree) {
+        List<Future<Void>> futures = new ArrayList<>(functions.size());
+        for (BaseResponseFunction function : functions) {
+            futures.add(function.apply(tree));
+        }
+
+        return Future.join(futures).mapEmpty();
+    }
+
+    @Override
+    public Set<String> eventKeys() {
+        Set<String> keys = new HashSet<>();
+        for (BaseResponseFunction function : functions) {
+            Set<String> functionKeys = function.eventKeys();
+            if (functionKeys == null) {
+                return null;
+            }
+            keys.addAll(functionKeys);
+        }
+        return keys;
+    }
+}
@@ -6,9 +6,7 @@ import com.epam.aidial.core.config.Deployment;
 import com.epam.aidial.core.config.Model;
 import com.epam.aidial.core.function.BaseRequestFunction;
 import com.epam.aidial.core.util.HttpStatus;
-import com.epam.aidial.core.util.ProxyUtil;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import io.vertx.core.buffer.Buffer;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -22,7 +20,9 @@ public class EnhanceModelRequestFn extends BaseRequestFunction<ObjectNode> {
         Deployment deployment = context.getDeployment();
         if (deployment instanceof Model) {
             try {
-                context.setRequestBody(enhanceModelRequest(context, tree));
+                if (enhanceModelRequest(context, tree)) {
+                    markChanged();
+                }
             } catch (Throwable e) {
                 context.respond(HttpStatus.BAD_REQUEST);
                 log.warn("Can't enhance model request. Trace: {}. Span: {}. Error: {}",
@@ -33,18 +33,16 @@ public class EnhanceModelRequestFn extends BaseRequestFunction<ObjectNode> {
         return null;
     }
 
-    private static Buffer enhanceModelRequest(ProxyContext context, ObjectNode tree) throws Exception {
+    private static boolean enhanceModelRequest(ProxyContext context, ObjectNode tree) {
         Model model = (Model) context.getDeployment();
         String overrideName = model.getOverrideName();
-        Buffer requestBody = context.getRequestBody();
 
         if (overrideName == null) {
-            return requestBody;
+            return false;
         }
 
         tree.remove("model");
         tree.put("model", overrideName);
-
-        return Buffer.buffer(ProxyUtil.MAPPER.writeValueAsBytes(tree));
+        return true;
     }
 }
@@ -0,0 +1,104 @@
+package com.epam.aidial.core.limiter;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.micrometer.backends.BackendRegistries;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Node-wide budget of the request and response bodies kept in memory by the requests in flight.
+ * <p>
+ *     A request with a body is admitted only if the body fits into the budget, so a burst of large requests
+ *     is rejected with 503 to be retried later instead of exhausting the heap.
+ *     A request is admitted anyway if nothing else is in flight, so a body larger than the budget can still be served.
+ *     The captured responses are accounted, but never rejected, because they are in flight already.
+ * </p>
+ */
+public class MemoryBudget {
+
+    /**
+     * Max number of bytes. Zero or negative for no limit, the bodies are accounted only.
+     */
+    @Getter
+    private final long limit;
+    /**
+     * Number of seconds to wait before retrying a rejected request.
+     */
+    @Getter
+    private final int retryAfter;
+    private final AtomicLong used = new AtomicLong();
+
+    public MemoryBudget(long limit, int retryAfter) {
+        this.limit = limit;
+        this.retryAfter = retryAfter;
+
+        MeterRegistry registry = BackendRegistries.getDefaultNow();
+        if (registry != null) {
+            Gauge.builder("aidial.memory.body.used", used, AtomicLong::get)
+                    .description("Bytes of request and response bodies kept in memory by the requests in flight")
+                    .baseUnit("bytes")
+                    .register(registry);
+            Gauge.builder("aidial.memory.body.limit", this, MemoryBudget::getLimit)
+                    .description("Max bytes of request bodies kept in memory by the requests in flight")
+                    .baseUnit("bytes")
+                    .register(registry);
+        }
+    }
+
+    /**
+     * @return the lease of the bytes or null if they don't fit into the budget.
+     */
+    @Nullable
+    public Lease tryAcquire(long bytes) {
+        while (true) {
+            long current = used.get();
+            if (limit > 0 && current > 0 && current + bytes > limit) {
+                MeterRegistry registry = BackendRegistries.getDefaultNow();
+                if (registry != null) {
+                    registry.counter("aidial.memory.body.rejected").increment();
+                }
+                return null;
+            }
+            if (used.compareAndSet(current, current + bytes)) {
+                return new Lease(bytes);
+            }
+        }
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * Bytes held by a request. The bytes are returned to the budget once when the request is over.
+     */
+    public class Lease {
+
+        private long bytes;
+        private boolean released;
+
+        private Lease(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Accounts more bytes regardless of the limit.
+         */
+        public synchronized void acquire(long bytes) {
+            if (!released) {
+                this.bytes += bytes;
+                used.addAndGet(bytes);
+            }
+        }
+
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                used.addAndGet(-bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.epam.aidial.core.limiter;
+
+import com.epam.aidial.core.storage.BlobStorageUtil;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps sliding window counters in Redis hashes. Each window is a ring of interval sums with the running total
+ * and the range of covered intervals, the same way as an in-memory bucket would do.
+ * All reads and updates are done by a single Lua script, so a check and an increment take one round-trip and need no locks.
+ */
+public class RateLimitStore {
+
+    private static final String SCRIPT = """
+            local key = KEYS[1]
+            local now = tonumber(ARGV[1])
+            local count = tonumber(ARGV[2])
+            local windows = (#ARGV - 3) / 4
+
+            local function str(value)
+              return string.format('%d', value)
+            end
+
+            if count == 0 and redis.call('exists', key) == 0 then
+              local result = {1}
+              for i = 1, windows do
+                result[i + 1] = 0
+              end
+              return result
+            end
+
+            local names = {}
+            local fields = {}
+            local sums = {}
+            local accepted = 1
+
+            for i = 1, windows do
+              local offset = 3 + (i - 1) * 4
+              local name = ARGV[offset + 1]
+              local interval = tonumber(ARGV[offset + 2])
+              local intervals = tonumber(ARGV[offset + 3])
+              local limit = tonumber(ARGV[offset + 4])
+
+              local state = redis.call('hmget', key, name .. ':start', name .. ':end', name .. ':sum')
+              local start = tonumber(state[1])
+              local finish = tonumber(state[2])
+              local sum = tonumber(state[3]) or 0
+              local point = math.floor(now / interval)
+
+              if start ~= nil and point < start then
+                point = start
+              end
+
+              if finish == nil or point >= finish then
+                local newFinish = point + 1
+                local newStart = newFinish - intervals
+
+                if start ~= nil then
+                  for clean = start, math.min(finish, newStart) - 1 do
+                    local field = name .. ':' .. str(clean % intervals)
+                    sum = sum - (tonumber(redis.call('hget', key, field)) or 0)
+                    redis.call('hdel', key, field)
+                  end
+                end
+
+                redis.call('hset', key, name .. ':start', str(newStart), name .. ':end', str(newFinish), name .. ':sum', str(sum))
+              end
+
+              names[i] = name
+              fields[i] = name .. ':' .. str(point % intervals)
+              sums[i] = sum
+
+              if limit ~= nil and sum >= limit then
+                accepted = 0
+              end
+            end
+
+            if accepted == 1 and count > 0 then
+              for i = 1, windows do
+                redis.call('hincrby', key, fields[i], ARGV[2])
+                sums[i] = redis.call('hincrby', key, names[i] .. ':sum', ARGV[2])
+              end
+              redis.call('pexpire', key, ARGV[3])
+            end
+
+            local result = {accepted}
+            for i = 1, windows do
+              result[i + 1] = sums[i]
+            end
+            return result
+            """;
+
+    private final RScript script;
+    private final String prefix;
+
+    public RateLimitStore(RedissonClient redis, @Nullable String prefix) {
+        this.script = redis.getScript(StringCodec.INSTANCE);
+        this.prefix = prefix;
+    }
+
+    /**
+     * Returns the totals of the windows at the given time.
+     */
+    public long[] update(String path, long timestamp, RateWindow... windows) {
+        return eval(path, timestamp, 0, windows, null).totals();
+    }
+
+    /**
+     * Adds the count to the windows and returns the new totals.
+     */
+    public long[] add(String path, long timestamp, long count, RateWindow... windows) {
+        return eval(path, timestamp, count, windows, null).totals();
+    }
+
+    /**
+     * Adds the count to the windows only if none of them reached its limit.
+     * The totals are returned after the increment if accepted and before it otherwise.
+     */
+    public RateUsage check(String path, long timestamp, long count, RateWindow[] windows, long[] limits) {
+        if (windows.length != limits.length) {
+            throw new IllegalArgumentException("Windows and limits must have the same length");
+        }
+
+        return eval(path, timestamp, count, windows, limits);
+    }
+
+    private RateUsage eval(String path, long timestamp, long count, RateWindow[] windows, @Nullable long[] limits) {
+        // the state is useless after the longest window passes since the last increment
+        long ttl = Arrays.stream(windows).mapToLong(RateWindow::window).max().orElse(0);
+        List<Object> args = new ArrayList<>(3 + windows.length * 4);
+        args.add(Long.toString(timestamp));
+        args.add(Long.toString(count));
+        args.add(Long.toString(ttl));
+
+        for (int i = 0; i < windows.length; i++) {
+            RateWindow window = windows[i];
+            args.add(window.name());
+            args.add(Long.toString(window.interval()));
+            args.add(Integer.toString(window.intervals()));
+            args.add(limits == null ? "" : Long.toString(limits[i]));
+        }
+
+        List<Long> result = script.eval(RScript.Mode.READ_WRITE, SCRIPT, RScript.ReturnType.MULTI,
+                List.of(key(path)), args.toArray());
+
+        long[] totals = new long[windows.length];
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = result.get(i + 1);
+        }
+
+        return new RateUsage(result.get(0) == 1, totals);
+    }
+
+    private String key(String path) {
+        return "rate_limit:" + BlobStorageUtil.toStoragePath(prefix, path);
+    }
+
+    public record RateUsage(boolean accepted, long[] totals) {
+    }
+}
@@ -7,12 +7,10 @@ import com.epam.aidial.core.config.Role;
 import com.epam.aidial.core.data.ItemLimitStats;
 import com.epam.aidial.core.data.LimitStats;
 import com.epam.aidial.core.data.ResourceType;
-import com.epam.aidial.core.service.ResourceService;
 import com.epam.aidial.core.storage.BlobStorageUtil;
 import com.epam.aidial.core.storage.ResourceDescription;
 import com.epam.aidial.core.token.TokenUsage;
 import com.epam.aidial.core.util.HttpStatus;
-import com.epam.aidial.core.util.ProxyUtil;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import lombok.RequiredArgsConstructor;
@@ -28,15 +26,17 @@ public class RateLimiter {
 
     private static final Limit DEFAULT_LIMIT = new Limit();
     private static final String DEFAULT_USER_ROLE = "default";
+    private static final RateWindow[] TOKEN_WINDOWS = {RateWindow.MINUTE, RateWindow.DAY};
+    private static final RateWindow[] REQUEST_WINDOWS = {RateWindow.HOUR, RateWindow.DAY};
 
     private final Vertx vertx;
 
-    private final ResourceService resourceService;
+    private final RateLimitStore store;
 
     public Future<Void> increase(ProxyContext context) {
         try {
             // skip checking limits if redis is not available
-            if (resourceService == null) {
+            if (store == null) {
                 return Future.succeededFuture();
             }
 
@@ -57,7 +57,7 @@ public class RateLimiter {
     public Future<RateLimitResult> limit(ProxyContext context) {
         try {
             // skip checking limits if redis is not available
-            if (resourceService == null) {
+            if (store == null) {
                 return Future.succeededFuture(RateLimitResult.SUCCESS);
             }
             String deploymentName = context.getDeployment().getName();
@@ -81,7 +81,7 @@ public class RateLimiter {
     public Future<LimitStats> getLimitStats(Deployment deployment, ProxyContext context) {
         try {
             // skip checking limits if redis is not available
-            if (resourceService == null) {
+            if (store == null) {
                 return Future.succeededFuture();
             }
             Limit limit = getLimitByUser(context, deployment);
@@ -102,23 +102,17 @@ public class RateLimiter {
     private void collectTokenLimitStats(ProxyContext context, LimitStats limitStats, long timestamp, String deploymentName) {
         String tokensPath = getPathToTokens(deploymentName);
         ResourceDescription resourceDescription = getResourceDescription(context, tokensPath);
-        String json = resourceService.getResource(resourceDescription, true);
-        TokenRateLimit rateLimit = ProxyUtil.convertToObject(json, TokenRateLimit.class);
-        if (rateLimit == null) {
-            return;
-        }
-        rateLimit.update(timestamp, limitStats);
+        long[] totals = store.update(resourceDescription.getAbsoluteFilePath(), timestamp, TOKEN_WINDOWS);
+        limitStats.getMinuteTokenStats().setUsed(totals[0]);
+        limitStats.getDayTokenStats().setUsed(totals[1]);
     }
 
     private void collectRequestLimitStats(ProxyContext context, LimitStats limitStats, long timestamp, String deploymentName) {
         String requestsPath = getPathToRequests(deploymentName);
         ResourceDescription resourceDescription = getResourceDescription(context, requestsPath);
-        String json = resourceService.getResource(resourceDescription, true);
-        RequestRateLimit rateLimit = ProxyUtil.convertToObject(json, RequestRateLimit.class);
-        if (rateLimit == null) {
-            return;
-        }
-        rateLimit.update(timestamp, limitStats);
+        long[] totals = store.update(resourceDescription.getAbsoluteFilePath(), timestamp, REQUEST_WINDOWS);
+        limitStats.getHourRequestStats().setUsed(totals[0]);
+        limitStats.getDayRequestStats().setUsed(totals[1]);
     }
 
     private LimitStats create(Limit limit) {
@@ -163,45 +157,34 @@ public class RateLimiter {
     private RateLimitResult checkTokenLimit(ProxyContext context, Limit limit, long timestamp) {
         String tokensPath = getPathToTokens(context.getDeployment().getName());
         ResourceDescription resourceDescription = getResourceDescription(context, tokensPath);
-        String prevValue = resourceService.getResource(resourceDescription);
-        TokenRateLimit rateLimit = ProxyUtil.convertToObject(prevValue, TokenRateLimit.class);
-        if (rateLimit == null) {
+        long[] limits = {limit.getMinute(), limit.getDay()};
+        RateLimitStore.RateUsage usage = store.check(resourceDescription.getAbsoluteFilePath(), timestamp, 0, TOKEN_WINDOWS, limits);
+        if (usage.accepted()) {
             return RateLimitResult.SUCCESS;
         }
-        return rateLimit.update(timestamp, limit);
+        String errorMsg = String.format("Hit token rate limit. Minute limit: %d / %d tokens. Day limit: %d / %d tokens.",
+                usage.totals()[0], limit.getMinute(), usage.totals()[1], limit.getDay());
+        return new RateLimitResult(HttpStatus.TOO_MANY_REQUESTS, errorMsg);
     }
 
     private RateLimitResult checkRequestLimit(ProxyContext context, Limit limit, long timestamp) {
-        String tokensPath = getPathToRequests(context.getDeployment().getName());
-        ResourceDescription resourceDescription = getResourceDescription(context, tokensPath);
-        // pass array to hold rate limit result returned by the function to compute the resource
-        RateLimitResult[] result = new RateLimitResult[1];
-        resourceService.computeResource(resourceDescription, json -> updateRequestLimit(json, timestamp, limit, result));
-        return result[0];
-    }
-
-    private String updateRequestLimit(String json, long timestamp, Limit limit, RateLimitResult[] result) {
-        RequestRateLimit rateLimit = ProxyUtil.convertToObject(json, RequestRateLimit.class);
-        if (rateLimit == null) {
-            rateLimit = new RequestRateLimit();
+        String requestsPath = getPathToRequests(context.getDeployment().getName());
+        ResourceDescription resourceDescription = getResourceDescription(context, requestsPath);
+        long[] limits = {limit.getRequestHour(), limit.getRequestDay()};
+        // the request is counted only if it is within the limits
+        RateLimitStore.RateUsage usage = store.check(resourceDescription.getAbsoluteFilePath(), timestamp, 1, REQUEST_WINDOWS, limits);
+        if (usage.accepted()) {
+            return RateLimitResult.SUCCESS;
         }
-        result[0] = rateLimit.check(timestamp, limit, 1);
-        return ProxyUtil.convertToString(rateLimit);
+        String errorMsg = String.format("Hit request rate limit. Hour limit: %d / %d requests. Day limit: %d / %d requests.",
+                usage.totals()[0], limit.getRequestHour(), usage.totals()[1], limit.getRequestDay());
+        return new RateLimitResult(HttpStatus.TOO_MANY_REQUESTS, errorMsg);
     }
 
     private Void updateTokenLimit(ResourceDescription resourceDescription, long totalUsedTokens) {
-        resourceService.computeResource(resourceDescription, json -> updateTokenLimit(json, totalUsedTokens));
-        return null;
-    }
-
-    private String updateTokenLimit(String json, long totalUsedTokens) {
-        TokenRateLimit rateLimit = ProxyUtil.convertToObject(json, TokenRateLimit.class);
-        if (rateLimit == null) {
-            rateLimit = new TokenRateLimit();
-        }
         long timestamp = System.currentTimeMillis();
-        rateLimit.add(timestamp, totalUsedTokens);
-        return ProxyUtil.convertToString(rateLimit);
+        store.add(resourceDescription.getAbsoluteFilePath(), timestamp, totalUsedTokens, TOKEN_WINDOWS);
+        return null;
     }
 
     private Limit getLimitByUser(ProxyContext context, Deployment deployment) {
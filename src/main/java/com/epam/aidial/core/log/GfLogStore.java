@@ -2,17 +2,19 @@ package com.epam.aidial.core.log;
 
 import com.epam.aidial.core.Proxy;
 import com.epam.aidial.core.ProxyContext;
+import com.epam.aidial.core.config.Deployment;
+import com.epam.aidial.core.config.Logging;
 import com.epam.aidial.core.config.Upstream;
 import com.epam.aidial.core.token.TokenUsage;
 import com.epam.aidial.core.upstream.UpstreamRoute;
-import com.epam.aidial.core.util.MergeChunks;
+import com.epam.aidial.core.util.BufferingReadStream;
 import com.epam.aidial.core.util.ProxyUtil;
+import com.epam.aidial.core.util.StreamingResponseAssembler;
 import com.epam.deltix.gflog.api.Log;
 import com.epam.deltix.gflog.api.LogEntry;
 import com.epam.deltix.gflog.api.LogFactory;
 import com.epam.deltix.gflog.api.LogLevel;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.netty.buffer.ByteBufInputStream;
 import io.vertx.core.Vertx;
@@ -20,9 +22,9 @@ import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
 import lombok.extern.slf4j.Slf4j;
 
-import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -30,32 +32,74 @@ import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
 import javax.annotation.Nullable;
 
 @Slf4j
 public class GfLogStore implements LogStore {
 
+    private static final char REPLACEMENT_CHARACTER = '\uFFFD';
     private static final Log LOGGER = LogFactory.getLog("aidial.log");
     private final Vertx vertx;
+    /**
+     * Default max size in bytes of a request or response body written to the log. Zero or negative for no limit.
+     */
+    private final int maxBodySize;
+    /**
+     * Default fraction of the requests written to the log.
+     */
+    private final double sampleRate;
 
-    public GfLogStore(Vertx vertx) {
+    public GfLogStore(Vertx vertx, JsonObject settings) {
         this.vertx = vertx;
+        this.maxBodySize = settings.getInteger("maxBodySize", 0);
+        this.sampleRate = settings.getDouble("sampleRate", 1.0);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return LOGGER.isInfoEnabled();
     }
 
     @Override
     public void save(ProxyContext context) {
-        if (!LOGGER.isInfoEnabled() || !context.getRequest().method().equals(HttpMethod.POST)) {
+        if (!isEnabled() || !context.getRequest().method().equals(HttpMethod.POST)) {
+            return;
+        }
+
+        Deployment deployment = context.getDeployment();
+        Logging logging = (deployment == null) ? null : deployment.getLogging();
+        if (!isSampled(logging)) {
             return;
         }
 
-        vertx.executeBlocking(() -> doSave(context));
+        int bodyLimit = bodyLimit(logging);
+        vertx.executeBlocking(() -> doSave(context, bodyLimit));
     }
 
-    private Void doSave(ProxyContext context) {
+    /**
+     * @param logging - the overrides of the deployment or null.
+     * @return true if the request should be written to the log according to the sample rate.
+     */
+    boolean isSampled(@Nullable Logging logging) {
+        double sampleRate = (logging == null || logging.getSampleRate() == null) ? this.sampleRate : logging.getSampleRate();
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * @param logging - the overrides of the deployment or null.
+     * @return the max number of bytes of a body written to the log.
+     */
+    int bodyLimit(@Nullable Logging logging) {
+        int maxBodySize = (logging == null || logging.getMaxBodySize() == null) ? this.maxBodySize : logging.getMaxBodySize();
+        return (maxBodySize > 0) ? maxBodySize : Integer.MAX_VALUE;
+    }
+
+    private Void doSave(ProxyContext context, int bodyLimit) {
         LogEntry entry = LOGGER.log(LogLevel.INFO);
 
         try {
-            append(context, entry);
+            append(context, entry, bodyLimit);
             entry.commit();
         } catch (Throwable e) {
             entry.abort();
@@ -64,7 +108,7 @@ public class GfLogStore implements LogStore {
         return null;
     }
 
-    private void append(ProxyContext context, LogEntry entry) throws JsonProcessingException {
+    private void append(ProxyContext context, LogEntry entry, int bodyLimit) throws JsonProcessingException {
         HttpServerRequest request = context.getRequest();
         HttpServerResponse response = context.getResponse();
 
@@ -121,10 +165,17 @@ public class GfLogStore implements LogStore {
         if (!context.isSecuredApiKey()) {
             append(entry, ",\"assembled_response\":\"", false);
             Buffer responseBody = context.getResponseBody();
-            if (isStreamingResponse(responseBody)) {
-                append(entry, assembleStreamingResponse(responseBody), true);
+            BufferingReadStream responseStream = context.getResponseStream();
+            StreamingResponseAssembler responseAssembler = context.getResponseAssembler();
+            if (responseAssembler != null && !responseAssembler.isEmpty()) {
+                append(entry, truncate(assembleStreamingResponse(responseAssembler), bodyLimit), true);
+            } else if (responseStream != null && responseStream.isTruncated()) {
+                // the captured part of the response can't be assembled
+                append(entry, "{}", true);
+            } else if (isStreamingResponse(responseBody)) {
+                append(entry, truncate(assembleStreamingResponse(responseBody), bodyLimit), true);
             } else {
-                append(entry, responseBody);
+                append(entry, responseBody, bodyLimit);
             }
             append(entry, "\"", false);
         }
@@ -155,7 +206,7 @@ public class GfLogStore implements LogStore {
 
         if (!context.isSecuredApiKey()) {
             append(entry, "\",\"body\":\"", false);
-            append(entry, context.getRequestBody());
+            append(entry, context.getRequestBody(), bodyLimit);
         }
 
         append(entry, "\"},\"response\":{\"status\":\"", false);
@@ -170,17 +221,71 @@ public class GfLogStore implements LogStore {
 
         if (!context.isSecuredApiKey()) {
             append(entry, "\",\"body\":\"", false);
-            append(entry, context.getResponseBody());
+            append(entry, context.getResponseBody(), bodyLimit);
         }
 
         append(entry, "\"}}", false);
     }
 
-    private static void append(LogEntry entry, Buffer buffer) {
-        if (buffer != null) {
-            byte[] bytes = buffer.getBytes();
-            String chars = new String(bytes, StandardCharsets.UTF_8); // not efficient, but ok for now
-            append(entry, chars, true);
+    /**
+     * Decodes UTF-8 and escapes the buffer right into the entry without copying it into a string.
+     * Malformed bytes are replaced with U+FFFD: overlong forms, encoded surrogates, code points above U+10FFFF
+     * and sequences truncated by the end of the buffer. A character is never split by the limit.
+     *
+     * @param limit - max number of bytes to append.
+     */
+    static void append(LogEntry entry, Buffer buffer, int limit) {
+        if (buffer == null) {
+            return;
+        }
+
+        int length = buffer.length();
+        int end = (int) Math.min(length, (long) limit);
+
+        int i = 0;
+        while (i < end) {
+            int b = buffer.getUnsignedByte(i);
+            if (b < 0x80) {
+                appendEscaped(entry, (char) b);
+                i++;
+                continue;
+            }
+
+            int size = utf8Size(b);
+            if (size == 0) {
+                entry.append(REPLACEMENT_CHARACTER);
+                i++;
+                continue;
+            }
+
+            if (i + size > end && end < length) {
+                break;
+            }
+
+            // the sequence may be truncated by the end of the buffer
+            int available = Math.min(size, length - i);
+            int codePoint = b & (0x7F >> size);
+            int j = 1;
+            for (; j < available; j++) {
+                int next = buffer.getUnsignedByte(i + j);
+                if (!isUtf8Continuation(b, j, next)) {
+                    break;
+                }
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+
+            if (j < size) {
+                // the maximal valid part of the sequence is replaced by a single character
+                entry.append(REPLACEMENT_CHARACTER);
+                i += j;
+            } else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                entry.append(Character.highSurrogate(codePoint));
+                entry.append(Character.lowSurrogate(codePoint));
+                i += size;
+            } else {
+                entry.append((char) codePoint);
+                i += size;
+            }
         }
     }
 
@@ -212,6 +317,89 @@ public class GfLogStore implements LogStore {
         entry.append(chars, j, i);
     }
 
+    private static void appendEscaped(LogEntry entry, char c) {
+        char e = escape(c);
+        if (e == 0) {
+            entry.append(c);
+        } else {
+            entry.append('\\');
+            entry.append(e);
+        }
+    }
+
+    /**
+     * @return the number of bytes in the UTF-8 sequence started by the lead byte or 0 if the byte can't start a sequence.
+     */
+    private static int utf8Size(int lead) {
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            return 2;
+        }
+        if (lead >= 0xE0 && lead <= 0xEF) {
+            return 3;
+        }
+        if (lead >= 0xF0 && lead <= 0xF4) {
+            return 4;
+        }
+        // 0xC0 and 0xC1 start overlong forms, 0xF5 and above start code points above U+10FFFF
+        return 0;
+    }
+
+    /**
+     * @return true if the byte at the index of the sequence started by the lead byte is valid.
+     *     The second byte is restricted to reject overlong forms, encoded surrogates and code points above U+10FFFF.
+     */
+    private static boolean isUtf8Continuation(int lead, int index, int next) {
+        if ((next & 0xC0) != 0x80) {
+            return false;
+        }
+        if (index > 1) {
+            return true;
+        }
+        return switch (lead) {
+            case 0xE0 -> next >= 0xA0;
+            case 0xED -> next < 0xA0;
+            case 0xF0 -> next >= 0x90;
+            case 0xF4 -> next < 0x90;
+            default -> true;
+        };
+    }
+
+    /**
+     * @return the longest prefix of the string which takes no more than the limit of bytes in UTF-8.
+     */
+    @Nullable
+    static String truncate(@Nullable String chars, int limit) {
+        if (chars == null || chars.length() <= limit / 3) {
+            return chars;
+        }
+
+        int size = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            int charSize;
+            if (c < 0x80) {
+                charSize = 1;
+            } else if (c < 0x800) {
+                charSize = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars.length() && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                charSize = 4;
+            } else {
+                charSize = 3;
+            }
+
+            if (size + charSize > limit) {
+                return chars.substring(0, i);
+            }
+
+            size += charSize;
+            if (charSize == 4) {
+                i++;
+            }
+        }
+
+        return chars;
+    }
+
     private static char escape(char c) {
         return switch (c) {
             case '\b' -> 'b';
@@ -241,13 +429,8 @@ public class GfLogStore implements LogStore {
         if (response == null) {
             return null;
         }
+        StreamingResponseAssembler assembler = new StreamingResponseAssembler();
         try (Scanner scanner = new Scanner(new ByteBufInputStream(response.getByteBuf()))) {
-            ObjectNode last = null;
-            JsonNode usage = null;
-            JsonNode statistics = null;
-            JsonNode systemFingerprint = null;
-            JsonNode model = null;
-            JsonNode choices = null;
             // each chunk is separated by one or multiple new lines with the prefix: 'data:' (except the first chunk)
             // chunks may contain `data:` inside chunk data, which may lead to incorrect parsing
             scanner.useDelimiter("(^data: *|\n+data: *)");
@@ -256,46 +439,25 @@ public class GfLogStore implements LogStore {
                 if (chunk.startsWith("[DONE]")) {
                     break;
                 }
-                ObjectNode tree = (ObjectNode) ProxyUtil.MAPPER.readTree(chunk);
-                usage = MergeChunks.merge(usage, tree.get("usage"));
-                statistics = MergeChunks.merge(statistics, tree.get("statistics"));
-                if (tree.get("system_fingerprint") != null) {
-                    systemFingerprint = tree.get("system_fingerprint");
-                }
-                if (model == null && tree.get("model") != null) {
-                    model = tree.get("model");
-                }
-                last = tree;
-                choices = MergeChunks.merge(choices, tree.get("choices"));
+                assembler.append((ObjectNode) ProxyUtil.MAPPER.readTree(chunk));
             }
+        } catch (Throwable e) {
+            log.warn("Can't assemble streaming response", e);
+            return "{}";
+        }
+        return assembleStreamingResponse(assembler);
+    }
 
-            if (last == null) {
+    /**
+     * Assembles streaming response from the chunks collected while the response was streamed.
+     */
+    static String assembleStreamingResponse(StreamingResponseAssembler assembler) {
+        try {
+            ObjectNode result = assembler.assemble();
+            if (result == null) {
                 log.warn("no chunk is found in streaming response");
                 return "{}";
             }
-
-            ObjectNode result = ProxyUtil.MAPPER.createObjectNode();
-            result.set("id", last.get("id"));
-            result.put("object", "chat.completion");
-            result.set("created", last.get("created"));
-            result.set("model", model);
-
-            if (usage != null) {
-                MergeChunks.removeIndices(usage);
-                result.set("usage", usage);
-            }
-            if (statistics != null) {
-                MergeChunks.removeIndices(statistics);
-                result.set("statistics", statistics);
-            }
-            if (systemFingerprint != null) {
-                result.set("system_fingerprint", systemFingerprint);
-            }
-
-            if (choices != null) {
-                MergeChunks.removeIndices(choices);
-                result.set("choices", choices);
-            }
             return ProxyUtil.convertToString(result);
         } catch (Throwable e) {
             log.warn("Can't assemble streaming response", e);
@@ -5,4 +5,9 @@ import com.epam.aidial.core.ProxyContext;
 public interface LogStore {
 
     void save(ProxyContext context);
+
+    /**
+     * @return <code>true</code> if the requests are logged, so the data for the log should be collected.
+     */
+    boolean isEnabled();
 }
@@ -52,8 +52,6 @@ public class IdentityProvider {
     // random salt is used to digest user email
     private final String loggingSalt;
 
-    private final MessageDigest sha256Digest;
-
     // the flag determines if user email should be obfuscated
     private final boolean obfuscateUserEmail;
 
@@ -121,11 +119,8 @@ public class IdentityProvider {
             loggingSalt = null;
         }
 
-        try {
-            sha256Digest = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalArgumentException(e);
-        }
+        // fail fast if the algorithm is not available, digests are created per call because they are not thread-safe
+        sha256Digest();
         obfuscateUserEmail = settings.getBoolean("obfuscateUserEmail", true);
 
         long period = Math.min(negativeCacheExpirationMs, positiveCacheExpirationMs);
@@ -210,7 +205,7 @@ public class IdentityProvider {
     private String extractUserHash(String keyClaim) {
         if (keyClaim != null && obfuscateUserEmail) {
             String keyClaimWithSalt = loggingSalt + keyClaim;
-            byte[] hash = sha256Digest.digest(keyClaimWithSalt.getBytes(StandardCharsets.UTF_8));
+            byte[] hash = sha256Digest().digest(keyClaimWithSalt.getBytes(StandardCharsets.UTF_8));
 
             StringBuilder hashString = new StringBuilder();
             for (byte b : hash) {
@@ -223,6 +218,14 @@ public class IdentityProvider {
         return keyClaim;
     }
 
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
     /**
      * Extracts user claims from user context. Currently only strings or list of strings/primitives supported.
      * If any other type provided - claim value will not be extracted, see IdentityProviderTest.testExtractClaims_13()
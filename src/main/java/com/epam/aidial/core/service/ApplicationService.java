@@ -242,6 +242,12 @@ public class ApplicationService {
         application.setUserRoles(Set.of());
         // forward auth token is not allowed for custom applications
         application.setForwardAuthToken(false);
+        // log settings are defined by the admin, custom applications are logged with the defaults
+        application.setLogging(null);
+        // the flush policy is defined by the admin, custom applications are streamed as is
+        application.setFlushPolicy(null);
+        // the timeouts are defined by the admin as well
+        application.setTimeouts(null);
         // reject request if both If-None-Match header and reference provided
 
         if (preserveReference && application.getReference() == null) {
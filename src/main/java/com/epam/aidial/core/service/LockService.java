@@ -27,25 +27,52 @@ public class LockService {
 
     private final String prefix;
     private final RScript script;
+    /**
+     * Whether the lock in the format of the earlier versions is taken as well, so the nodes of both versions exclude each other
+     * during a rolling upgrade.
+     */
+    private final boolean legacyLocks;
 
     public LockService(RedissonClient redis, @Nullable String prefix) {
+        this(redis, prefix, false);
+    }
+
+    public LockService(RedissonClient redis, @Nullable String prefix, boolean legacyLocks) {
         this.prefix = prefix;
         this.script = redis.getScript(StringCodec.INSTANCE);
+        this.legacyLocks = legacyLocks;
     }
 
     public Lock lock(String key) {
         String id = id(key);
+        String legacyId = legacyId(key);
         long owner = ThreadLocalRandom.current().nextLong();
-        long ttl = tryLock(id, owner);
-        long interval = WAIT_MIN;
+        spinLock(id, owner);
 
-        while (ttl > 0) {
-            LockSupport.parkNanos(interval);
-            interval = Math.min(2 * interval, Math.min(WAIT_MAX, ttl + 1));
-            ttl = tryLock(id, owner);
+        if (legacyId == null) {
+            return () -> unlock(id, owner);
         }
 
-        return () -> unlock(id, owner);
+        try {
+            // the nodes of the earlier versions take only the legacy lock, so the locks can't be taken in the opposite order
+            spinLock(legacyId, owner);
+        } catch (Throwable e) {
+            unlock(id, owner);
+            throw e;
+        }
+
+        return () -> {
+            unlock(legacyId, owner);
+            unlock(id, owner);
+        };
+    }
+
+    /**
+     * @return true if a script updating the key can check the lock atomically: the lock shares the hash slot with the key
+     *     and no legacy lock is taken.
+     */
+    public boolean isScriptLockable(String key) {
+        return !legacyLocks && !hasBraces(key);
     }
 
     public <T> T underBucketLock(String bucketLocation, Supplier<T> function) {
@@ -81,9 +108,41 @@ public class LockService {
     @Nullable
     public Lock tryLock(String key) {
         String id = id(key);
+        String legacyId = legacyId(key);
         long owner = ThreadLocalRandom.current().nextLong();
+
+        if (tryLock(id, owner) != 0) {
+            return null;
+        }
+
+        if (legacyId == null) {
+            return () -> unlock(id, owner);
+        }
+
+        boolean locked = false;
+        try {
+            locked = tryLock(legacyId, owner) == 0;
+        } finally {
+            if (!locked) {
+                unlock(id, owner);
+            }
+        }
+
+        return () -> {
+            unlock(legacyId, owner);
+            unlock(id, owner);
+        };
+    }
+
+    private void spinLock(String id, long owner) {
         long ttl = tryLock(id, owner);
-        return (ttl == 0) ? () -> unlock(id, owner) : null;
+        long interval = WAIT_MIN;
+
+        while (ttl > 0) {
+            LockSupport.parkNanos(interval);
+            interval = Math.min(2 * interval, Math.min(WAIT_MAX, ttl + 1));
+            ttl = tryLock(id, owner);
+        }
     }
 
     private long tryLock(String id, long owner) {
@@ -128,8 +187,26 @@ public class LockService {
         }
     }
 
-    private static String id(String key) {
-        return "lock:" + key;
+    /**
+     * The lock shares the hash slot with the key in Redis Cluster, so a script can check the lock and update the key atomically.
+     * Keys with braces have their own hash tags and are used as is.
+     */
+    static String id(String key) {
+        return hasBraces(key) ? "lock:" + key : "lock:{" + key + "}";
+    }
+
+    /**
+     * The earlier versions locked <code>lock:key</code>.
+     *
+     * @return the id of the legacy lock or null if it is not taken or matches the lock.
+     */
+    @Nullable
+    private String legacyId(String key) {
+        return (legacyLocks && !hasBraces(key)) ? "lock:" + key : null;
+    }
+
+    private static boolean hasBraces(String key) {
+        return key.indexOf('{') >= 0 || key.indexOf('}') >= 0;
     }
 
     public interface Lock extends AutoCloseable {
@@ -0,0 +1,97 @@
+package com.epam.aidial.core.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+import javax.annotation.Nullable;
+
+/**
+ * Bounded in-process cache of hot values in front of Redis. Size is limited in bytes and admission is frequency based (TinyLFU),
+ * so a scan over cold resources doesn't wash out hot ones.
+ * <p>
+ *     Entries are invalidated by resource events from all nodes. Events can be lost, so an entry is trusted only for
+ *     the revalidation period after it was loaded or revalidated. After that, the caller must check the etag against Redis.
+ * </p>
+ */
+class NearCache<V> {
+
+    /**
+     * Max number of the recent invalidations kept per key
+     */
+    private static final int MAX_TOMBSTONES = 10_000;
+
+    private final Cache<String, Entry<V>> cache;
+    private final long revalidatePeriod;
+    /**
+     * Incremented on every invalidation to order the invalidations and the loads.
+     */
+    private final AtomicLong version = new AtomicLong();
+    /**
+     * The version of the last invalidation by key, so a value loaded concurrently with an invalidation of the same key is not cached.
+     */
+    private final Cache<String, Long> tombstones;
+    /**
+     * The max version of the evicted tombstones. A value loaded before it is not cached as its key might be invalidated.
+     */
+    private final AtomicLong evictedVersion = new AtomicLong();
+
+    NearCache(long maxSize, long revalidatePeriod, ToIntFunction<V> weigher) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize)
+                .<String, Entry<V>>weigher((key, entry) -> 2 * key.length() + weigher.applyAsInt(entry.value()))
+                .build();
+        this.tombstones = Caffeine.newBuilder()
+                .maximumSize(MAX_TOMBSTONES)
+                .<String, Long>evictionListener((key, tombstone, cause) -> evictedVersion.accumulateAndGet(tombstone, Math::max))
+                .build();
+        this.revalidatePeriod = revalidatePeriod;
+    }
+
+    /**
+     * @return the version to pass to {@link #put(String, long, Object, String)} for a value which is about to be loaded.
+     */
+    long version() {
+        return version.get();
+    }
+
+    @Nullable
+    Entry<V> get(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    void put(String key, long loadVersion, V value, String etag) {
+        if (isInvalidated(key, loadVersion)) {
+            return;
+        }
+
+        Entry<V> entry = new Entry<>(value, etag, System.currentTimeMillis() + revalidatePeriod);
+        cache.put(key, entry);
+
+        // the key might be invalidated while the entry is put
+        if (isInvalidated(key, loadVersion)) {
+            cache.asMap().remove(key, entry);
+        }
+    }
+
+    void revalidate(String key, Entry<V> entry) {
+        cache.asMap().replace(key, entry, new Entry<>(entry.value(), entry.etag(), System.currentTimeMillis() + revalidatePeriod));
+    }
+
+    void invalidate(String key) {
+        tombstones.put(key, version.incrementAndGet());
+        cache.invalidate(key);
+    }
+
+    private boolean isInvalidated(String key, long loadVersion) {
+        Long tombstone = tombstones.getIfPresent(key);
+        return (tombstone != null && tombstone > loadVersion) || evictedVersion.get() > loadVersion;
+    }
+
+    record Entry<V>(V value, String etag, long trustedUntil) {
+        boolean isTrusted() {
+            return System.currentTimeMillis() < trustedUntil;
+        }
+    }
+}
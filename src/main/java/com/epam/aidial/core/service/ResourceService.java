@@ -16,8 +16,13 @@ import com.epam.aidial.core.util.EtagHeader;
 import com.epam.aidial.core.util.RedisUtil;
 import com.epam.aidial.core.util.ResourceUtil;
 import com.google.common.collect.Sets;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
 import io.vertx.core.json.JsonObject;
+import io.vertx.micrometer.backends.BackendRegistries;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.SneakyThrows;
@@ -33,8 +38,11 @@ import org.jclouds.blobstore.domain.PageSet;
 import org.jclouds.blobstore.domain.StorageMetadata;
 import org.jclouds.blobstore.domain.StorageType;
 import org.jclouds.io.Payload;
+import org.redisson.api.RBatch;
+import org.redisson.api.RFuture;
 import org.redisson.api.RMap;
 import org.redisson.api.RScoredSortedSet;
+import org.redisson.api.RScript;
 import org.redisson.api.RedissonClient;
 import org.redisson.client.codec.ByteArrayCodec;
 import org.redisson.client.codec.Codec;
@@ -47,6 +55,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -54,6 +63,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import javax.annotation.Nullable;
@@ -84,6 +94,80 @@ public class ResourceService implements AutoCloseable {
     private static final Codec REDIS_MAP_CODEC = new CompositeCodec(
             StringCodec.INSTANCE,
             ByteArrayCodec.INSTANCE);
+    private static final int COMPUTE_ATTEMPTS = 4;
+    /**
+     * Commits a resource to Redis if it is not locked and its state is unchanged.
+     * KEYS: resource, lock. ARGV: expected etag (empty if the resource must not exist),
+     * expiration in milliseconds (empty to persist), field-value pairs (none to delete the resource).
+     */
+    private static final String REDIS_COMMIT_SCRIPT = """
+            local time = redis.call('time')
+            local now = time[1] * 1000000 + time[2]
+            local deadline = tonumber(redis.call('hget', KEYS[2], 'deadline'))
+
+            if (deadline ~= nil and now < deadline) then
+              return 0
+            end
+
+            local state = redis.call('hmget', KEYS[1], 'etag', 'exists')
+            local current = ''
+
+            if (state[2] == 'true') then
+              current = state[1]
+            end
+
+            if (current ~= ARGV[1]) then
+              return 0
+            end
+
+            if (#ARGV < 3) then
+              redis.call('del', KEYS[1])
+              return 1
+            end
+
+            redis.call('hset', KEYS[1], unpack(ARGV, 3))
+
+            if (ARGV[2] == '') then
+              redis.call('persist', KEYS[1])
+            else
+              redis.call('pexpire', KEYS[1], ARGV[2])
+            end
+
+            return 1
+            """;
+    /**
+     * Writes resource fields and sets the expiration in one go.
+     * KEYS: resource. ARGV: expiration in milliseconds (empty to persist), field-value pairs.
+     */
+    private static final String REDIS_PUT_SCRIPT = """
+            redis.call('hset', KEYS[1], unpack(ARGV, 2))
+
+            if (ARGV[1] == '') then
+              redis.call('persist', KEYS[1])
+            else
+              redis.call('pexpire', KEYS[1], ARGV[1])
+            end
+            """;
+    /**
+     * Sets the expiration if it is not set.
+     * KEYS: resource. ARGV: expiration in milliseconds.
+     */
+    private static final String REDIS_EXPIRE_SCRIPT = """
+            if (redis.call('pttl', KEYS[1]) == -1) then
+              redis.call('pexpire', KEYS[1], ARGV[1])
+            end
+            """;
+    /**
+     * Removes a resource from the sync queue unless it was scheduled again after the given time.
+     * KEYS: queue. ARGV: resource, time.
+     */
+    private static final String REDIS_DEQUEUE_SCRIPT = """
+            local score = redis.call('zscore', KEYS[1], ARGV[1])
+
+            if (score and tonumber(score) <= tonumber(ARGV[2])) then
+              redis.call('zrem', KEYS[1], ARGV[1])
+            end
+            """;
 
     private final Vertx vertx;
     private final RedissonClient redis;
@@ -96,9 +180,20 @@ public class ResourceService implements AutoCloseable {
     private final long syncDelay;
     private final int syncBatch;
     private final Duration cacheExpiration;
+    private final Duration ephemeralExpiration;
+    private final Duration negativeCacheExpiration;
     private final int compressionMinSize;
     private final String prefix;
     private final String resourceQueue;
+    private final SyncPartitioner syncPartitioner;
+    private final WorkerExecutor syncExecutor;
+    private final AtomicBoolean syncing = new AtomicBoolean();
+    /**
+     * Concurrent Redis misses of the same resource share one load from the blob storage.
+     */
+    private final SingleFlight<String, Result> loads = new SingleFlight<>();
+    @Nullable
+    private final NearCache<Result> nearCache;
 
     public ResourceService(Vertx vertx,
                            RedissonClient redis,
@@ -111,19 +206,31 @@ public class ResourceService implements AutoCloseable {
                 settings.getLong("syncPeriod"),
                 settings.getLong("syncDelay"),
                 settings.getInteger("syncBatch"),
+                settings.getInteger("syncShards", 16),
+                settings.getInteger("syncParallelism", 8),
                 settings.getLong("cacheExpiration"),
+                settings.getLong("ephemeralExpiration"),
+                settings.getLong("negativeCacheExpiration", 60000L),
                 settings.getInteger("compressionMinSize"),
+                settings.getLong("nearCacheMaxSize", 0L),
+                settings.getLong("nearCacheRevalidatePeriod", 5000L),
                 prefix
         );
     }
 
     /**
-     * @param maxSize            - max allowed size in bytes for a resource.
-     * @param syncPeriod         - period in milliseconds, how frequently check for resources to sync.
-     * @param syncDelay          - delay in milliseconds for a resource to be written back in object storage after last modification.
-     * @param syncBatch          - how many resources to sync in one go.
-     * @param cacheExpiration    - expiration in milliseconds for synced resources in Redis.
-     * @param compressionMinSize - compress resources with gzip if their size in bytes more or equal to this value.
+     * @param maxSize                   - max allowed size in bytes for a resource.
+     * @param syncPeriod                - period in milliseconds, how frequently check for resources to sync.
+     * @param syncDelay                 - delay in milliseconds for a resource to be written back in object storage after last modification.
+     * @param syncBatch                 - how many resources to sync in one go from a shard of the sync queue.
+     * @param syncShards                - number of shards of the sync queue. The shards are distributed among the nodes.
+     * @param syncParallelism           - how many resources a node syncs in parallel.
+     * @param cacheExpiration           - expiration in milliseconds for synced resources in Redis.
+     * @param ephemeralExpiration       - expiration in milliseconds for ephemeral resources in Redis since last modification.
+     * @param negativeCacheExpiration   - expiration in milliseconds for markers of resources missing in the blob storage in Redis.
+     * @param compressionMinSize        - compress resources with gzip if their size in bytes more or equal to this value.
+     * @param nearCacheMaxSize          - max size in bytes of the in-process cache of resources, 0 disables the cache.
+     * @param nearCacheRevalidatePeriod - period in milliseconds, how long a cached resource is served without checking its etag in Redis.
      */
     public ResourceService(Vertx vertx,
                            RedissonClient redis,
@@ -133,8 +240,14 @@ public class ResourceService implements AutoCloseable {
                            long syncPeriod,
                            long syncDelay,
                            int syncBatch,
+                           int syncShards,
+                           int syncParallelism,
                            long cacheExpiration,
+                           long ephemeralExpiration,
+                           long negativeCacheExpiration,
                            int compressionMinSize,
+                           long nearCacheMaxSize,
+                           long nearCacheRevalidatePeriod,
                            String prefix) {
         this.vertx = vertx;
         this.redis = redis;
@@ -145,17 +258,48 @@ public class ResourceService implements AutoCloseable {
         this.syncDelay = syncDelay;
         this.syncBatch = syncBatch;
         this.cacheExpiration = Duration.ofMillis(cacheExpiration);
+        this.ephemeralExpiration = Duration.ofMillis(ephemeralExpiration);
+        this.negativeCacheExpiration = Duration.ofMillis(negativeCacheExpiration);
         this.compressionMinSize = compressionMinSize;
         this.prefix = prefix;
         this.resourceQueue = "resource:" + BlobStorageUtil.toStoragePath(prefix, "queue");
+        this.syncPartitioner = new SyncPartitioner(redis, "resource:" + BlobStorageUtil.toStoragePath(prefix, "sync_nodes"),
+                syncShards, 3 * syncPeriod);
+        this.syncExecutor = vertx.createSharedWorkerExecutor("resource-sync", syncParallelism);
+
+        if (nearCacheMaxSize > 0) {
+            NearCache<Result> cache = new NearCache<>(nearCacheMaxSize, nearCacheRevalidatePeriod, result -> result.body.length + 128);
+            topic.subscribeAll(event -> cache.invalidate(event.getUrl()));
+            this.nearCache = cache;
+        } else {
+            this.nearCache = null;
+        }
 
-        // vertex timer is called from event loop, so sync is done in worker thread to not block event loop
-        this.syncTimer = vertx.setPeriodic(syncPeriod, syncPeriod, ignore -> vertx.executeBlocking(() -> sync()));
+        MeterRegistry registry = BackendRegistries.getDefaultNow();
+        if (registry != null) {
+            FunctionCounter.builder("aidial.resource.loads", loads, SingleFlight::loads)
+                    .description("Loads of resources missing in Redis from the blob storage")
+                    .tag("coalesced", "false")
+                    .register(registry);
+            FunctionCounter.builder("aidial.resource.loads", loads, SingleFlight::coalesced)
+                    .description("Loads of resources missing in Redis from the blob storage")
+                    .tag("coalesced", "true")
+                    .register(registry);
+        }
+
+        this.syncTimer = vertx.setPeriodic(syncPeriod, syncPeriod, ignore -> sync());
     }
 
     @Override
     public void close() {
         vertx.cancelTimer(syncTimer);
+        syncExecutor.close();
+
+        try {
+            syncPartitioner.leave();
+        } catch (Throwable e) {
+            log.warn("Failed to leave sync partitioning:", e);
+        }
     }
 
     public ResourceTopic.Subscription subscribeResources(Collection<ResourceDescription> resources,
@@ -163,6 +307,13 @@ public class ResourceService implements AutoCloseable {
         return topic.subscribe(resources, subscriber);
     }
 
+    /**
+     * Subscribes to the events of all resources from all nodes. The subscription lives as long as the service.
+     */
+    public void subscribeAllResources(Consumer<ResourceEvent> subscriber) {
+        topic.subscribeAll(subscriber);
+    }
+
     @Nullable
     public MetadataBase getMetadata(ResourceDescription descriptor, String token, int limit, boolean recursive) {
         return descriptor.isFolder()
@@ -217,16 +368,30 @@ public class ResourceService implements AutoCloseable {
 
     @Nullable
     public ResourceItemMetadata getResourceMetadata(ResourceDescription descriptor) {
+        return getResourceMetadata(descriptor, true);
+    }
+
+    @Nullable
+    private ResourceItemMetadata getResourceMetadata(ResourceDescription descriptor, boolean cached) {
         if (descriptor.isFolder()) {
             throw new IllegalArgumentException("Resource folder: " + descriptor.getUrl());
         }
 
         String redisKey = redisKey(descriptor);
-        Result result = redisGet(redisKey, false);
+        Result result = cached ? nearCacheGet(descriptor, redisKey) : null;
 
         if (result == null) {
+            result = redisGet(redisKey, false);
+        }
+
+        if (result == null) {
+            if (descriptor.getType().isEphemeral()) {
+                return null;
+            }
+
             String blobKey = blobKey(descriptor);
-            result = blobGet(blobKey, false);
+            // callers bypassing the near cache hold the lock already
+            result = cached ? blobGetMetadata(redisKey, blobKey) : blobGet(blobKey, false);
         }
 
         if (!result.exists()) {
@@ -256,16 +421,52 @@ public class ResourceService implements AutoCloseable {
 
     public boolean hasResource(ResourceDescription descriptor) {
         String redisKey = redisKey(descriptor);
-        Result result = redisGet(redisKey, false);
+        Result result = nearCacheGet(descriptor, redisKey);
 
         if (result == null) {
+            result = redisGet(redisKey, false);
+        }
+
+        if (result == null) {
+            if (descriptor.getType().isEphemeral()) {
+                return false;
+            }
+
             String blobKey = blobKey(descriptor);
-            return blobExists(blobKey);
+            result = blobGetMetadata(redisKey, blobKey);
         }
 
         return result.exists();
     }
 
+    /**
+     * Loads metadata of a resource missing in Redis from the blob storage.
+     * A missing resource is remembered in Redis for a while, so repeated lookups of it don't reach the blob storage.
+     * The blob storage might be written directly under the lock after removing the resource from Redis,
+     * so an existing resource is read without the lock, but a miss is confirmed under the lock before it is remembered.
+     */
+    private Result blobGetMetadata(String redisKey, String blobKey) {
+        Result result = blobGet(blobKey, false);
+
+        if (result.exists()) {
+            return result;
+        }
+
+        try (var ignore = lockService.lock(redisKey)) {
+            result = redisGet(redisKey, false);
+
+            if (result == null) {
+                result = blobGet(blobKey, false);
+
+                if (!result.exists()) {
+                    redisPutMissing(redisKey);
+                }
+            }
+
+            return result;
+        }
+    }
+
     @Nullable
     public Pair<ResourceItemMetadata, String> getResourceWithMetadata(ResourceDescription descriptor) {
         return getResourceWithMetadata(descriptor, true);
@@ -273,18 +474,24 @@ public class ResourceService implements AutoCloseable {
 
     @Nullable
     public Pair<ResourceItemMetadata, String> getResourceWithMetadata(ResourceDescription descriptor, boolean lock) {
+        return getResourceWithMetadata(descriptor, lock, true);
+    }
+
+    @Nullable
+    private Pair<ResourceItemMetadata, String> getResourceWithMetadata(ResourceDescription descriptor, boolean lock, boolean cached) {
         String redisKey = redisKey(descriptor);
-        Result result = redisGet(redisKey, true);
+        Result result = cached ? nearCacheGet(descriptor, redisKey) : null;
 
         if (result == null) {
-            try (var ignore = lock ? lockService.lock(redisKey) : null) {
-                result = redisGet(redisKey, true);
+            long version = nearCacheVersion();
+            result = load(descriptor, redisKey, lock);
 
-                if (result == null) {
-                    String blobKey = blobKey(descriptor);
-                    result = blobGet(blobKey, true);
-                    redisPut(redisKey, result);
-                }
+            if (result == null) {
+                return null;
+            }
+
+            if (cached) {
+                nearCachePut(descriptor, version, result);
             }
         }
 
@@ -297,6 +504,38 @@ public class ResourceService implements AutoCloseable {
         return null;
     }
 
+    /**
+     * Loads the resource from Redis or from the blob storage filling Redis.
+     * Every caller reads Redis itself, so it sees its own writes. Only the loads from the blob storage are coalesced.
+     *
+     * @return the resource or null if an ephemeral resource is not found.
+     */
+    @Nullable
+    private Result load(ResourceDescription descriptor, String redisKey, boolean lock) {
+        Result result = redisGet(redisKey, true);
+
+        if (result == null && !descriptor.getType().isEphemeral()) {
+            // the caller holding the lock must not wait for a load which waits for the same lock
+            result = lock ? loads.load(redisKey, () -> blobLoad(descriptor, redisKey, true)) : blobLoad(descriptor, redisKey, false);
+        }
+
+        return result;
+    }
+
+    private Result blobLoad(ResourceDescription descriptor, String redisKey, boolean lock) {
+        try (var ignore = lock ? lockService.lock(redisKey) : null) {
+            Result result = redisGet(redisKey, true);
+
+            if (result == null) {
+                String blobKey = blobKey(descriptor);
+                result = blobGet(blobKey, true);
+                redisPut(redisKey, result);
+            }
+
+            return result;
+        }
+    }
+
     @Nullable
     public String getResource(ResourceDescription descriptor) {
         return getResource(descriptor, true);
@@ -367,7 +606,7 @@ public class ResourceService implements AutoCloseable {
         String redisKey = redisKey(descriptor);
 
         try (var ignore = lock ? lockService.lock(redisKey) : null) {
-            ResourceItemMetadata metadata = getResourceMetadata(descriptor);
+            ResourceItemMetadata metadata = getResourceMetadata(descriptor, false);
 
             if (metadata != null) {
                 etag.validate(metadata.getEtag());
@@ -376,8 +615,12 @@ public class ResourceService implements AutoCloseable {
             Long updatedAt = time();
             Long createdAt = metadata == null ? updatedAt : metadata.getCreatedAt();
             String newEtag = EtagBuilder.generateEtag(body);
-            Result result = new Result(body, newEtag, createdAt, updatedAt, contentType, (long) body.length, descriptor.getType(), false);
-            if (body.length <= maxSize) {
+            boolean ephemeral = descriptor.getType().isEphemeral();
+            Result result = new Result(body, newEtag, createdAt, updatedAt, contentType, (long) body.length, descriptor.getType(), ephemeral);
+            if (ephemeral) {
+                redisPutEphemeral(redisKey, result);
+                return toResourceItemMetadata(descriptor, result);
+            } else if (body.length <= maxSize) {
                 redisPut(redisKey, result);
                 if (metadata == null) {
                     String blobKey = blobKey(descriptor);
@@ -415,7 +658,7 @@ public class ResourceService implements AutoCloseable {
             ResourceDescription descriptor, MultipartData multipartData, EtagHeader etag) {
         String redisKey = redisKey(descriptor);
         try (var ignore = lockService.lock(redisKey)) {
-            ResourceItemMetadata metadata = getResourceMetadata(descriptor);
+            ResourceItemMetadata metadata = getResourceMetadata(descriptor, false);
             if (metadata != null) {
                 etag.validate(metadata.getEtag());
             }
@@ -445,11 +688,31 @@ public class ResourceService implements AutoCloseable {
         computeResource(descriptor, EtagHeader.ANY, fn);
     }
 
+    /**
+     * Computes the resource optimistically without the lock if it is cached in Redis and retries the function on conflicts.
+     * Falls back to the lock if the resource must be loaded from or written to the blob storage
+     * or if the commit script can't check the lock, e.g. while the legacy locks are taken.
+     * The function may be called more than once, so it must not have side effects beyond the result.
+     */
     public ResourceItemMetadata computeResource(ResourceDescription descriptor, EtagHeader etag, Function<String, String> fn) {
         String redisKey = redisKey(descriptor);
 
+        if (lockService.isScriptLockable(redisKey)) {
+            for (int attempt = 0; attempt < COMPUTE_ATTEMPTS; attempt++) {
+                Pair<CommitStatus, ResourceItemMetadata> result = tryComputeResource(descriptor, redisKey, etag, fn);
+
+                if (result.getKey() == CommitStatus.COMMITTED) {
+                    return result.getValue();
+                }
+
+                if (result.getKey() == CommitStatus.UNSUPPORTED) {
+                    break;
+                }
+            }
+        }
+
         try (var ignore = lockService.lock(redisKey)) {
-            Pair<ResourceItemMetadata, String> oldResult = getResourceWithMetadata(descriptor, false);
+            Pair<ResourceItemMetadata, String> oldResult = getResourceWithMetadata(descriptor, false, false);
 
             if (oldResult != null) {
                 etag.validate(oldResult.getKey().getEtag());
@@ -475,6 +738,71 @@ public class ResourceService implements AutoCloseable {
         }
     }
 
+    private Pair<CommitStatus, ResourceItemMetadata> tryComputeResource(
+            ResourceDescription descriptor, String redisKey, EtagHeader etag, Function<String, String> fn) {
+        boolean ephemeral = descriptor.getType().isEphemeral();
+        Result oldResult = redisGet(redisKey, true);
+
+        // a persistent resource must be loaded from the blob storage, and a new one needs a blob stub for listing
+        if (!ephemeral && (oldResult == null || !oldResult.exists())) {
+            return Pair.of(CommitStatus.UNSUPPORTED, null);
+        }
+
+        boolean exists = oldResult != null && oldResult.exists();
+        ResourceItemMetadata oldMetadata = exists ? toResourceItemMetadata(descriptor, oldResult) : null;
+
+        if (oldMetadata != null) {
+            etag.validate(oldMetadata.getEtag());
+        }
+
+        String oldBody = exists ? new String(oldResult.body, StandardCharsets.UTF_8) : null;
+        String newBody = fn.apply(oldBody);
+
+        if (oldBody == null && newBody == null) {
+            return Pair.of(CommitStatus.COMMITTED, null);
+        }
+
+        if (Objects.equals(oldBody, newBody)) {
+            return Pair.of(CommitStatus.COMMITTED, oldMetadata);
+        }
+
+        String expectedEtag = exists ? oldResult.etag : "";
+
+        if (newBody == null) {
+            if (!ephemeral) { // blob must be deleted as well
+                return Pair.of(CommitStatus.UNSUPPORTED, null);
+            }
+
+            return redisCommit(redisKey, expectedEtag, null, null)
+                    ? Pair.of(CommitStatus.COMMITTED, oldMetadata)
+                    : Pair.of(CommitStatus.CONFLICT, null);
+        }
+
+        byte[] bytes = newBody.getBytes(StandardCharsets.UTF_8);
+        if (!ephemeral && bytes.length > maxSize) {
+            return Pair.of(CommitStatus.UNSUPPORTED, null);
+        }
+
+        Long updatedAt = time();
+        Long createdAt = exists ? oldResult.createdAt : updatedAt;
+        String newEtag = EtagBuilder.generateEtag(bytes);
+        Result result = new Result(bytes, newEtag, createdAt, updatedAt, "application/json", (long) bytes.length, descriptor.getType(), ephemeral);
+
+        if (ephemeral) {
+            if (!redisCommit(redisKey, expectedEtag, ephemeralExpiration, result)) {
+                return Pair.of(CommitStatus.CONFLICT, null);
+            }
+        } else {
+            if (!redisCommit(redisKey, expectedEtag, null, result)) {
+                return Pair.of(CommitStatus.CONFLICT, null);
+            }
+
+            publishEvent(descriptor, ResourceEvent.Action.UPDATE, updatedAt, newEtag);
+        }
+
+        return Pair.of(CommitStatus.COMMITTED, toResourceItemMetadata(descriptor, result));
+    }
+
     public boolean deleteResource(ResourceDescription descriptor, EtagHeader etag) {
         return deleteResource(descriptor, etag, true);
     }
@@ -483,7 +811,7 @@ public class ResourceService implements AutoCloseable {
         String redisKey = redisKey(descriptor);
 
         try (var ignore = lock ? lockService.lock(redisKey) : null) {
-            ResourceItemMetadata metadata = getResourceMetadata(descriptor);
+            ResourceItemMetadata metadata = getResourceMetadata(descriptor, false);
 
             if (metadata == null) {
                 return false;
@@ -491,6 +819,11 @@ public class ResourceService implements AutoCloseable {
 
             etag.validate(metadata.getEtag());
 
+            if (descriptor.getType().isEphemeral()) {
+                redis.getMap(redisKey, REDIS_MAP_CODEC).delete();
+                return true;
+            }
+
             redisPut(redisKey, Result.DELETED_NOT_SYNCED);
             blobDelete(blobKey(descriptor));
             redisSync(redisKey);
@@ -514,12 +847,12 @@ public class ResourceService implements AutoCloseable {
         Pair<String, String> sortedPair = toOrderedPair(fromRedisKey, toRedisKey);
         try (LockService.Lock ignored1 = lockService.lock(sortedPair.getLeft());
              LockService.Lock ignored2 = lockService.lock(sortedPair.getRight())) {
-            ResourceItemMetadata fromMetadata = getResourceMetadata(from);
+            ResourceItemMetadata fromMetadata = getResourceMetadata(from, false);
             if (fromMetadata == null) {
                 return false;
             }
 
-            ResourceItemMetadata toMetadata = getResourceMetadata(to);
+            ResourceItemMetadata toMetadata = getResourceMetadata(to, false);
             if (toMetadata == null || overwrite) {
                 flushToBlobStore(fromRedisKey);
                 flushToBlobStore(toRedisKey);
@@ -537,6 +870,10 @@ public class ResourceService implements AutoCloseable {
     }
 
     private void publishEvent(ResourceDescription descriptor, ResourceEvent.Action action, long timestamp, String etag) {
+        if (nearCache != null) {
+            nearCache.invalidate(descriptor.getUrl());
+        }
+
         ResourceEvent event = new ResourceEvent()
                 .setUrl(descriptor.getUrl())
                 .setAction(action)
@@ -546,46 +883,107 @@ public class ResourceService implements AutoCloseable {
         topic.publish(event);
     }
 
+    @Nullable
+    private Result nearCacheGet(ResourceDescription descriptor, String redisKey) {
+        if (nearCache == null || !isNearCacheable(descriptor)) {
+            return null;
+        }
+
+        String url = descriptor.getUrl();
+        NearCache.Entry<Result> entry = nearCache.get(url);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (!entry.isTrusted()) {
+            // the invalidation event might be lost, so compare etags which is much cheaper than loading the body
+            RMap<String, byte[]> map = redis.getMap(redisKey, REDIS_MAP_CODEC);
+            String etag = RedisUtil.redisToString(map.get(ResourceUtil.ETAG_ATTRIBUTE), null);
+
+            if (!entry.etag().equals(etag)) {
+                nearCache.invalidate(url);
+                return null;
+            }
+
+            nearCache.revalidate(url, entry);
+        }
+
+        return entry.value();
+    }
+
+    private long nearCacheVersion() {
+        return (nearCache == null) ? 0 : nearCache.version();
+    }
+
+    private void nearCachePut(ResourceDescription descriptor, long version, Result result) {
+        if (nearCache != null && isNearCacheable(descriptor) && result.exists()) {
+            nearCache.put(descriptor.getUrl(), version, result, result.etag());
+        }
+    }
+
+    private static boolean isNearCacheable(ResourceDescription descriptor) {
+        // files are streamed and ephemeral resources are rarely read twice
+        return descriptor.getType() != ResourceType.FILE && !descriptor.getType().isEphemeral();
+    }
+
     private Pair<String, String> toOrderedPair(String a, String b) {
         return a.compareTo(b) > 0 ? Pair.of(a, b) : Pair.of(b, a);
     }
 
-    private Void sync() {
-        log.debug("Syncing");
-        try {
-            RScoredSortedSet<String> set = redis.getScoredSortedSet(resourceQueue, StringCodec.INSTANCE);
-            long now = time();
+    /**
+     * Syncs the due resources from the shards owned by this node with bounded parallelism.
+     * Runs again right away while the shards have more due resources than fit in a batch.
+     */
+    private void sync() {
+        if (!syncing.compareAndSet(false, true)) {
+            // previous round is still in progress, the heartbeat keeps the shards of this node until it's done
+            vertx.executeBlocking(() -> {
+                syncPartitioner.touch(time());
+                return null;
+            }, false).onFailure(error -> log.warn("Failed to send sync heartbeat:", error));
+            return;
+        }
 
-            for (String redisKey : set.valueRange(Double.NEGATIVE_INFINITY, true, now, true, 0, syncBatch)) {
-                try (var lock = lockService.tryLock(redisKey)) {
-                    if (lock == null) {
-                        continue;
+        log.debug("Syncing");
+        // vertex timer is called from event loop, so queues are read in worker thread to not block event loop
+        vertx.executeBlocking(this::syncBatch, false)
+                .compose(batch -> {
+                    List<Future<Void>> futures = new ArrayList<>(batch.resources().size());
+                    for (QueuedResource resource : batch.resources()) {
+                        futures.add(syncExecutor.executeBlocking(() -> syncResource(resource), false));
                     }
 
-                    sync(redisKey);
-                } catch (Throwable e) {
-                    log.warn("Failed to sync resource: {}", redisKey, e);
-                }
-            }
-        } catch (Throwable e) {
-            log.warn("Failed to sync:", e);
-        }
+                    return Future.join(futures).map(ignore -> batch.full());
+                })
+                .onComplete(result -> {
+                    syncing.set(false);
 
-        return null;
+                    if (result.failed()) {
+                        log.warn("Failed to sync:", result.cause());
+                    } else if (result.result()) {
+                        sync();
+                    }
+                });
     }
 
     private RMap<String, byte[]> sync(String redisKey) {
+        return sync(redisKey, null);
+    }
+
+    /**
+     * @param sourceQueue - the queue the resource is read from if it may differ from the queue of its shard, e.g. the one before sharding.
+     */
+    private RMap<String, byte[]> sync(String redisKey, @Nullable String sourceQueue) {
         log.debug("Syncing resource: {}", redisKey);
         Result result = redisGet(redisKey, false);
         if (result == null || result.synced) {
-            RMap<String, byte[]> map = redis.getMap(redisKey, REDIS_MAP_CODEC);
-            long ttl = map.remainTimeToLive();
-            // according to the documentation, -1 means expiration is not set
-            if (ttl == -1) {
-                map.expire(cacheExpiration);
-            }
-            redis.getScoredSortedSet(resourceQueue, StringCodec.INSTANCE).remove(redisKey);
-            return map;
+            RBatch batch = redis.createBatch();
+            batch.getScript(StringCodec.INSTANCE).evalAsync(RScript.Mode.READ_WRITE, REDIS_EXPIRE_SCRIPT, RScript.ReturnType.VALUE,
+                    List.of(redisKey), Long.toString(cacheExpiration.toMillis()));
+            redisDequeue(batch, redisKey, sourceQueue);
+            batch.execute();
+            return redis.getMap(redisKey, REDIS_MAP_CODEC);
         }
 
         String blobKey = blobKeyFromRedisKey(redisKey);
@@ -598,11 +996,49 @@ public class ResourceService implements AutoCloseable {
             blobDelete(blobKey);
         }
 
-        return redisSync(redisKey);
+        return redisSync(redisKey, sourceQueue);
+    }
+
+    private SyncBatch syncBatch() {
+        long now = time();
+        boolean full = false;
+        List<QueuedResource> resources = new ArrayList<>();
+
+        for (int shard : syncPartitioner.heartbeat(now)) {
+            String queue = resourceQueue(shard);
+            RScoredSortedSet<String> set = redis.getScoredSortedSet(queue, StringCodec.INSTANCE);
+            Collection<String> shardKeys = set.valueRange(Double.NEGATIVE_INFINITY, true, now, true, 0, syncBatch);
+            full |= (shardKeys.size() == syncBatch);
+            for (String key : shardKeys) {
+                resources.add(new QueuedResource(queue, key));
+            }
+        }
+
+        return new SyncBatch(resources, full);
     }
 
-    private boolean blobExists(String key) {
-        return blobStore.exists(key);
+    private Void syncResource(QueuedResource resource) {
+        String redisKey = resource.key();
+        try (var lock = lockService.tryLock(redisKey)) {
+            if (lock != null) {
+                sync(redisKey, resource.queue());
+            }
+        } catch (Throwable e) {
+            log.warn("Failed to sync resource: {}", redisKey, e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Shard 0 keeps the name of the unsharded queue, so the resources queued before sharding are still synced.
+     */
+    private String resourceQueue(int shard) {
+        return (shard == 0) ? resourceQueue : resourceQueue + ":" + shard;
+    }
+
+    private String resourceQueue(String redisKey) {
+        return resourceQueue(syncPartitioner.shard(redisKey));
     }
 
     @SneakyThrows
@@ -719,16 +1155,117 @@ public class ResourceService implements AutoCloseable {
         return new Result(body, etag, createdAt, updatedAt, contentType, contentLength, resourceType, synced);
     }
 
+    /**
+     * Writes the resource with a single pipelined batch: the sync queue update and a script writing the hash with its expiration.
+     * <p>
+     *     The batch is not atomic. The queue is shared by many resources and doesn't share the hash slot with the resource in Redis Cluster,
+     *     so the commands can't run in one MULTI/EXEC transaction or script. The queue is updated before the hash is written,
+     *     so a single Redis server never has a changed resource which isn't queued for sync.
+     *     In Redis Cluster the queue update may fail on its node while the hash is written on another one: the call fails,
+     *     but the resource stays changed and isn't written back to the blob storage until it's changed again.
+     * </p>
+     */
     private void redisPut(String key, Result result) {
-        RScoredSortedSet<String> set = redis.getScoredSortedSet(resourceQueue, StringCodec.INSTANCE);
-        set.add(time() + syncDelay, key); // add resource to sync set before changing because calls below can fail
+        RBatch batch = redis.createBatch();
 
-        RMap<String, byte[]> map = redis.getMap(key, REDIS_MAP_CODEC);
+        if (result.synced) {
+            redisPut(batch, key, toRedisFields(result), cacheExpiration);
+            redisDequeue(batch, key); // cleanup because it is already synced
+        } else {
+            redisEnqueue(batch, key); // add resource to sync set before changing because calls below can fail
+            redisPut(batch, key, toRedisFields(result), null);
+        }
 
-        if (!result.synced) {
-            map.clearExpire();
+        batch.execute();
+    }
+
+    private static void redisPut(RBatch batch, String key, Map<String, byte[]> fields, @Nullable Duration expiration) {
+        List<Object> args = new ArrayList<>(1 + 2 * fields.size());
+        args.add(RedisUtil.stringToRedis(expiration == null ? "" : Long.toString(expiration.toMillis())));
+        fields.forEach((field, value) -> {
+            args.add(RedisUtil.stringToRedis(field));
+            args.add(value);
+        });
+
+        batch.getScript(ByteArrayCodec.INSTANCE).evalAsync(RScript.Mode.READ_WRITE, REDIS_PUT_SCRIPT, RScript.ReturnType.VALUE,
+                List.of(key), args.toArray());
+    }
+
+    /**
+     * Commits the resource if nobody holds the lock and the resource still has the expected etag.
+     * The sync queue is updated in the same pipelined batch before the commit and with the same gap in Redis Cluster
+     * as {@link #redisPut(String, Result)}. The queue entry of a failed commit only causes an extra sync.
+     *
+     * @param expectedEtag - etag of the resource or empty string if the resource must not exist.
+     * @param expiration   - expiration of the resource or null to persist it.
+     * @param result       - resource to put or null to delete the resource.
+     */
+    private boolean redisCommit(String key, String expectedEtag, @Nullable Duration expiration, @Nullable Result result) {
+        List<Object> args = new ArrayList<>();
+        args.add(RedisUtil.stringToRedis(expectedEtag));
+        args.add(RedisUtil.stringToRedis(expiration == null ? "" : Long.toString(expiration.toMillis())));
+
+        if (result != null) {
+            toRedisFields(result).forEach((field, value) -> {
+                args.add(RedisUtil.stringToRedis(field));
+                args.add(value);
+            });
         }
 
+        RBatch batch = redis.createBatch();
+
+        if (result != null && !result.synced) {
+            redisEnqueue(batch, key); // add resource to sync set before changing because the commit can fail
+        }
+
+        RFuture<Long> committed = batch.getScript(ByteArrayCodec.INSTANCE).evalAsync(RScript.Mode.READ_WRITE,
+                REDIS_COMMIT_SCRIPT, RScript.ReturnType.INTEGER, List.of(key, LockService.id(key)), args.toArray());
+        batch.execute();
+        return committed.toCompletableFuture().join() == 1;
+    }
+
+    private void redisEnqueue(RBatch batch, String key) {
+        batch.getScoredSortedSet(resourceQueue(key), StringCodec.INSTANCE).addAsync(time() + syncDelay, key);
+    }
+
+    private void redisDequeue(RBatch batch, String key) {
+        redisDequeue(batch, key, null);
+    }
+
+    /**
+     * Removes the resource from the sync queue unless it was modified again and is waiting for the next sync.
+     * The resource is also removed from the queue it was read from, if it's not the queue of its shard:
+     * the resource was queued before sharding or before the number of shards changed.
+     */
+    private void redisDequeue(RBatch batch, String key, @Nullable String sourceQueue) {
+        String queue = resourceQueue(key);
+        String time = Long.toString(time());
+        batch.getScript(StringCodec.INSTANCE).evalAsync(RScript.Mode.READ_WRITE, REDIS_DEQUEUE_SCRIPT, RScript.ReturnType.VALUE,
+                List.of(queue), key, time);
+
+        if (sourceQueue != null && !sourceQueue.equals(queue)) {
+            batch.getScript(StringCodec.INSTANCE).evalAsync(RScript.Mode.READ_WRITE, REDIS_DEQUEUE_SCRIPT, RScript.ReturnType.VALUE,
+                    List.of(sourceQueue), key, time);
+        }
+    }
+
+    /**
+     * Ephemeral resources are never written back to the blob storage, so they bypass the sync queue
+     * and expire after a period of inactivity.
+     */
+    private void redisPutEphemeral(String key, Result result) {
+        RBatch batch = redis.createBatch();
+        redisPut(batch, key, toRedisFields(result), ephemeralExpiration);
+        batch.execute();
+    }
+
+    private void redisPutMissing(String key) {
+        RBatch batch = redis.createBatch();
+        redisPut(batch, key, toRedisFields(Result.DELETED_SYNCED), negativeCacheExpiration);
+        batch.execute();
+    }
+
+    private static Map<String, byte[]> toRedisFields(Result result) {
         Map<String, byte[]> fields = new HashMap<>();
         if (result.exists()) {
             fields.put(BODY_ATTRIBUTE, result.body);
@@ -746,23 +1283,19 @@ public class ResourceService implements AutoCloseable {
             fields.put(EXISTS_ATTRIBUTE, RedisUtil.BOOLEAN_FALSE_ARRAY);
         }
         fields.put(SYNCED_ATTRIBUTE, RedisUtil.booleanToRedis(result.synced));
-        map.putAll(fields);
-
-        if (result.synced) { // cleanup because it is already synced
-            map.expire(cacheExpiration);
-            set.remove(key);
-        }
+        return fields;
     }
 
     private RMap<String, byte[]> redisSync(String key) {
-        RMap<String, byte[]> map = redis.getMap(key, REDIS_MAP_CODEC);
-        map.put(SYNCED_ATTRIBUTE, RedisUtil.BOOLEAN_TRUE_ARRAY);
-        map.expire(cacheExpiration);
-
-        RScoredSortedSet<String> set = redis.getScoredSortedSet(resourceQueue, StringCodec.INSTANCE);
-        set.remove(key);
+        return redisSync(key, null);
+    }
 
-        return map;
+    private RMap<String, byte[]> redisSync(String key, @Nullable String sourceQueue) {
+        RBatch batch = redis.createBatch();
+        redisPut(batch, key, Map.of(SYNCED_ATTRIBUTE, RedisUtil.BOOLEAN_TRUE_ARRAY), cacheExpiration);
+        redisDequeue(batch, key, sourceQueue);
+        batch.execute();
+        return redis.getMap(key, REDIS_MAP_CODEC);
     }
 
     private String redisKey(ResourceDescription descriptor) {
@@ -804,6 +1337,10 @@ public class ResourceService implements AutoCloseable {
         return metadata;
     }
 
+    private enum CommitStatus {
+        COMMITTED, CONFLICT, UNSUPPORTED
+    }
+
     @Builder
     private record Result(
             byte[] body,
@@ -826,6 +1363,12 @@ public class ResourceService implements AutoCloseable {
         }
     }
 
+    private record SyncBatch(List<QueuedResource> resources, boolean full) {
+    }
+
+    private record QueuedResource(String queue, String key) {
+    }
+
     public record ResourceStream(InputStream inputStream, String etag, String contentType, long contentLength)
             implements Closeable {
 
@@ -10,9 +10,11 @@ import org.redisson.api.RedissonClient;
 import org.redisson.codec.TypedJsonJacksonCodec;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
@@ -21,6 +23,7 @@ import java.util.function.Consumer;
 public class ResourceTopic {
 
     private final Map<String, Set<Subscription>> urlToSubscriptions = new ConcurrentHashMap<>();
+    private final List<Consumer<ResourceEvent>> listeners = new CopyOnWriteArrayList<>();
     private final RTopic topic;
 
     public ResourceTopic(RedissonClient redis, String topicKey) {
@@ -50,6 +53,13 @@ public class ResourceTopic {
         return subscription;
     }
 
+    /**
+     * Subscribes to events of all resources for the lifetime of the topic.
+     */
+    public void subscribeAll(Consumer<ResourceEvent> listener) {
+        listeners.add(listener);
+    }
+
     private void unsubscribe(Subscription subscription) {
         for (ResourceDescription resource : subscription.resources) {
             String url = resource.getUrl();
@@ -61,6 +71,14 @@ public class ResourceTopic {
     }
 
     private void handle(ResourceEvent event) {
+        for (Consumer<ResourceEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (Throwable e) {
+                log.warn("Can't notify listener", e);
+            }
+        }
+
         for (Subscription subscription : urlToSubscriptions.getOrDefault(event.getUrl(), Set.of())) {
             try {
                 subscription.subscriber.accept(event);
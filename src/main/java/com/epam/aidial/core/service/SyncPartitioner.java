@@ -0,0 +1,116 @@
+package com.epam.aidial.core.service;
+
+import org.redisson.api.RScoredSortedSet;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Splits the sync queue into shards and assigns the shards to the nodes with consistent hashing,
+ * so a node joining or leaving moves only a fraction of the shards.
+ * <p>
+ *     Nodes announce themselves with heartbeats into a Redis sorted set and are forgotten after they miss the timeout.
+ *     Nodes may briefly disagree on the owners after a membership change, which is fine because a resource is synced under its lock.
+ * </p>
+ */
+class SyncPartitioner {
+
+    private static final int VIRTUAL_NODES = 64;
+
+    private final RScoredSortedSet<String> nodes;
+    private final String node = UUID.randomUUID().toString();
+    private final int shards;
+    private final long timeout;
+
+    /**
+     * @param key     - key of the sorted set with the nodes.
+     * @param shards  - number of the sync queue shards.
+     * @param timeout - timeout in milliseconds after the last heartbeat when a node is considered gone.
+     */
+    SyncPartitioner(RedissonClient redis, String key, int shards, long timeout) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Shards must be positive: " + shards);
+        }
+
+        this.nodes = redis.getScoredSortedSet(key, StringCodec.INSTANCE);
+        this.shards = shards;
+        this.timeout = timeout;
+    }
+
+    int shard(String key) {
+        return Math.floorMod(hash(key), shards);
+    }
+
+    /**
+     * Sends the heartbeat of this node and returns the shards this node is responsible for.
+     */
+    List<Integer> heartbeat(long now) {
+        if (shards == 1) {
+            return List.of(0);
+        }
+
+        nodes.add(now, node);
+        nodes.removeRangeByScore(Double.NEGATIVE_INFINITY, true, now - timeout, false);
+        return owned(node, nodes.readAll(), shards);
+    }
+
+    /**
+     * Refreshes the heartbeat of this node while a sync round runs longer than the timeout.
+     */
+    void touch(long now) {
+        if (shards > 1) {
+            nodes.add(now, node);
+        }
+    }
+
+    /**
+     * Removes this node, so other nodes take over its shards without waiting for the timeout.
+     */
+    void leave() {
+        if (shards > 1) {
+            nodes.remove(node);
+        }
+    }
+
+    static List<Integer> owned(String node, Collection<String> nodes, int shards) {
+        TreeMap<Integer, String> ring = new TreeMap<>();
+        for (String member : nodes) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(member + "#" + i), member);
+            }
+        }
+
+        List<Integer> owned = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            Map.Entry<Integer, String> owner = ring.ceilingEntry(hash("shard#" + shard));
+            if (owner == null) {
+                owner = ring.firstEntry();
+            }
+
+            if (owner == null || owner.getValue().equals(node)) {
+                owned.add(shard);
+            }
+        }
+
+        return owned;
+    }
+
+    /**
+     * String hash code is stable across JVMs, the finalizer of murmur3 spreads it over the ring.
+     */
+    private static int hash(String value) {
+        int hash = value.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
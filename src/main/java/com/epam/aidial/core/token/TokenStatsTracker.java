@@ -2,30 +2,111 @@ package com.epam.aidial.core.token;
 
 import com.epam.aidial.core.ProxyContext;
 import com.epam.aidial.core.config.ApiKeyData;
-import com.epam.aidial.core.data.ResourceType;
-import com.epam.aidial.core.service.ResourceService;
-import com.epam.aidial.core.storage.ResourceDescription;
-import com.epam.aidial.core.util.EtagHeader;
-import com.epam.aidial.core.util.ProxyUtil;
+import com.epam.aidial.core.storage.BlobStorageUtil;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
-import lombok.Data;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
 
-import java.util.HashMap;
+import java.math.BigDecimal;
+import java.util.List;
 import java.util.Map;
-
-import static com.epam.aidial.core.storage.BlobStorageUtil.PATH_SEPARATOR;
-
+import java.util.Objects;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Tracks token usage of the spans within a trace. The trace is kept in a Redis hash with a group of fields per span:
+ * the parent span id, token counters, the cost and the aggregated cost.
+ * All updates are done by Lua scripts, so they are atomic and take a single round-trip without locks.
+ */
 @Slf4j
-@RequiredArgsConstructor
 public class TokenStatsTracker {
-    public static final String DEPLOYMENT_COST_STATS_BUCKET = "deployment_cost_stats";
-    public static final String DEPLOYMENT_COST_STATS_LOCATION = DEPLOYMENT_COST_STATS_BUCKET + PATH_SEPARATOR;
+
+    private static final String PARENT_FIELD = ":parent";
+    private static final String COMPLETION_TOKENS_FIELD = ":completion_tokens";
+    private static final String PROMPT_TOKENS_FIELD = ":prompt_tokens";
+    private static final String TOTAL_TOKENS_FIELD = ":total_tokens";
+    private static final String COST_FIELD = ":cost";
+    private static final String AGG_COST_FIELD = ":agg_cost";
+
+    private static final String START_SPAN_SCRIPT = """
+            local key = KEYS[1]
+            local span = ARGV[1]
+
+            redis.call('hdel', key, span .. ':completion_tokens', span .. ':prompt_tokens', span .. ':total_tokens',
+                                    span .. ':cost', span .. ':agg_cost')
+            redis.call('hset', key, span .. ':parent', ARGV[2])
+            redis.call('pexpire', key, ARGV[3])
+            """;
+
+    private static final String UPDATE_STATS_SCRIPT = """
+            local key = KEYS[1]
+            local span = ARGV[1]
+
+            local function put(field, value)
+              if value == '' then
+                redis.call('hdel', key, field)
+              else
+                redis.call('hset', key, field, value)
+              end
+            end
+
+            local function add(field, value)
+              if value == '' then
+                return
+              end
+              -- keep the exact decimal representation of a single contribution
+              if redis.call('hexists', key, field) == 0 then
+                redis.call('hset', key, field, value)
+              else
+                redis.call('hincrbyfloat', key, field, value)
+              end
+            end
+
+            local parent = redis.call('hget', key, span .. ':parent')
+            if not parent then
+              return 0
+            end
+
+            redis.call('hset', key, span .. ':completion_tokens', ARGV[2], span .. ':prompt_tokens', ARGV[3],
+                                    span .. ':total_tokens', ARGV[4])
+            put(span .. ':cost', ARGV[5])
+            put(span .. ':agg_cost', ARGV[6])
+
+            -- span ids come from clients, so the depth is bounded to not loop forever on a cycle
+            local depth = 0
+            while parent and parent ~= '' and depth < 256 do
+              redis.call('hincrby', key, parent .. ':completion_tokens', ARGV[2])
+              redis.call('hincrby', key, parent .. ':prompt_tokens', ARGV[3])
+              redis.call('hincrby', key, parent .. ':total_tokens', ARGV[4])
+              add(parent .. ':agg_cost', ARGV[6])
+              parent = redis.call('hget', key, parent .. ':parent')
+              depth = depth + 1
+            end
+
+            redis.call('pexpire', key, ARGV[7])
+            return 1
+            """;
 
     private final Vertx vertx;
-    private final ResourceService resourceService;
+    private final RedissonClient redis;
+    private final RScript script;
+    private final String prefix;
+    private final long expiration;
+
+    /**
+     * @param expiration - expiration in milliseconds for a trace since its last modification.
+     */
+    public TokenStatsTracker(Vertx vertx, RedissonClient redis, @Nullable String prefix, long expiration) {
+        this.vertx = vertx;
+        this.redis = redis;
+        this.script = redis.getScript(StringCodec.INSTANCE);
+        this.prefix = prefix;
+        this.expiration = expiration;
+    }
 
     /**
      * Starts current span.
@@ -35,28 +116,29 @@ public class TokenStatsTracker {
      */
     public Future<Void> startSpan(ProxyContext context) {
         return vertx.executeBlocking(() -> {
-            ResourceDescription resource = toResource(context.getTraceId());
-            resourceService.computeResource(resource, json -> {
-                TraceContext traceContext = ProxyUtil.convertToObject(json, TraceContext.class);
-                if (traceContext == null) {
-                    traceContext = new TraceContext();
-                }
-                traceContext.addSpan(context);
-                return ProxyUtil.convertToString(traceContext);
-            });
+            String parentSpanId = Objects.requireNonNullElse(context.getParentSpanId(), "");
+            script.eval(RScript.Mode.READ_WRITE, START_SPAN_SCRIPT, RScript.ReturnType.VALUE,
+                    List.of(key(context.getTraceId())), context.getSpanId(), parentSpanId, Long.toString(expiration));
             return null;
         }, false);
     }
 
     public Future<TokenUsage> getTokenStats(ProxyContext context) {
         return vertx.executeBlocking(() -> {
-            ResourceDescription resource = toResource(context.getTraceId());
-            String json = resourceService.getResource(resource);
-            TraceContext traceContext = ProxyUtil.convertToObject(json, TraceContext.class);
-            if (traceContext == null) {
+            String spanId = context.getSpanId();
+            Map<String, String> fields = redis.<String, String>getMap(key(context.getTraceId()), StringCodec.INSTANCE)
+                    .getAll(Set.of(spanId + PARENT_FIELD, spanId + COMPLETION_TOKENS_FIELD, spanId + PROMPT_TOKENS_FIELD,
+                            spanId + TOTAL_TOKENS_FIELD, spanId + COST_FIELD, spanId + AGG_COST_FIELD));
+            if (!fields.containsKey(spanId + PARENT_FIELD)) {
                 return null;
             }
-            return traceContext.getStats(context);
+            TokenUsage tokenUsage = new TokenUsage();
+            tokenUsage.setCompletionTokens(toLong(fields.get(spanId + COMPLETION_TOKENS_FIELD)));
+            tokenUsage.setPromptTokens(toLong(fields.get(spanId + PROMPT_TOKENS_FIELD)));
+            tokenUsage.setTotalTokens(toLong(fields.get(spanId + TOTAL_TOKENS_FIELD)));
+            tokenUsage.setCost(toDecimal(fields.get(spanId + COST_FIELD)));
+            tokenUsage.setAggCost(toDecimal(fields.get(spanId + AGG_COST_FIELD)));
+            return tokenUsage;
         }, false);
     }
 
@@ -67,8 +149,7 @@ public class TokenStatsTracker {
         ApiKeyData apiKeyData = context.getApiKeyData();
         if (apiKeyData.getPerRequestKey() == null) {
             return vertx.executeBlocking(() -> {
-                ResourceDescription resource = toResource(context.getTraceId());
-                resourceService.deleteResource(resource, EtagHeader.ANY);
+                redis.getMap(key(context.getTraceId()), StringCodec.INSTANCE).delete();
                 return null;
             }, false);
         } else {
@@ -79,70 +160,35 @@ public class TokenStatsTracker {
     }
 
     public Future<TokenUsage> updateModelStats(ProxyContext context) {
-        ResourceDescription resource = toResource(context.getTraceId());
+        String key = key(context.getTraceId());
         return vertx.executeBlocking(() -> {
-            resourceService.computeResource(resource, json -> {
-                TraceContext traceContext = ProxyUtil.convertToObject(json, TraceContext.class);
-                if (traceContext == null) {
-                    return null;
-                }
-                traceContext.updateStats(context.getSpanId(), context.getTokenUsage());
-                return ProxyUtil.convertToString(traceContext);
-            });
-            return context.getTokenUsage();
+            TokenUsage tokenUsage = context.getTokenUsage();
+            script.eval(RScript.Mode.READ_WRITE, UPDATE_STATS_SCRIPT, RScript.ReturnType.INTEGER, List.of(key),
+                    context.getSpanId(),
+                    Long.toString(tokenUsage.getCompletionTokens()),
+                    Long.toString(tokenUsage.getPromptTokens()),
+                    Long.toString(tokenUsage.getTotalTokens()),
+                    fromDecimal(tokenUsage.getCost()),
+                    fromDecimal(tokenUsage.getAggCost()),
+                    Long.toString(expiration));
+            return tokenUsage;
         }, false);
     }
 
-    @Data
-    public static class TraceContext {
-        Map<String, TokenStats> spans = new HashMap<>();
-
-        void addSpan(ProxyContext context) {
-            String spanId = context.getSpanId();
-            String parentSpanId = context.getParentSpanId();
-            TokenStats tokenStats = new TokenStats(new TokenUsage(), parentSpanId);
-            spans.put(spanId, tokenStats);
-        }
-
-        TokenUsage getStats(ProxyContext context) {
-            TokenStats tokenStats = spans.get(context.getSpanId());
-            if (tokenStats == null) {
-                return null;
-            }
-            return tokenStats.tokenUsage;
-        }
-
-        void updateStats(String spanId, TokenUsage tokenUsage) {
-            TokenStats tokenStats = spans.get(spanId);
-            if (tokenStats == null) {
-                return;
-            }
-            tokenStats.tokenUsage = tokenUsage;
-            String parenSpanId = tokenStats.parentSpanId;
-            while (parenSpanId != null) {
-                tokenStats = spans.get(parenSpanId);
-                tokenStats.tokenUsage.increase(tokenUsage);
-                parenSpanId = tokenStats.parentSpanId;
-            }
-        }
+    private String key(String traceId) {
+        return "token_stats:" + BlobStorageUtil.toStoragePath(prefix, traceId);
     }
 
-    @Data
-    public static class TokenStats {
-        TokenUsage tokenUsage;
-        String parentSpanId;
-
-        public TokenStats() {
-        }
+    private static long toLong(@Nullable String value) {
+        return value == null ? 0 : Long.parseLong(value);
+    }
 
-        public TokenStats(TokenUsage tokenUsage, String parentSpanId) {
-            this.tokenUsage = tokenUsage;
-            this.parentSpanId = parentSpanId;
-        }
+    @Nullable
+    private static BigDecimal toDecimal(@Nullable String value) {
+        return value == null ? null : new BigDecimal(value);
     }
 
-    private static ResourceDescription toResource(String traceId) {
-        return ResourceDescription.fromDecoded(
-                ResourceType.DEPLOYMENT_COST_STATS, DEPLOYMENT_COST_STATS_BUCKET, DEPLOYMENT_COST_STATS_LOCATION, traceId);
+    private static String fromDecimal(@Nullable BigDecimal value) {
+        return value == null ? "" : value.toPlainString();
     }
 }
@@ -16,6 +16,8 @@ import java.util.Arrays;
 @UtilityClass
 public class TokenUsageParser {
 
+    private static final JsonFactory FACTORY = new JsonFactory();
+
     public TokenUsage parse(Buffer body) {
         try {
             return parseUsage(body);
@@ -32,9 +34,8 @@ public class TokenUsageParser {
         }
 
         ByteBuf slice = body.slice(index, body.length()).getByteBuf();
-        JsonFactory factory = new JsonFactory();
 
-        try (InputStream stream = new ByteBufInputStream(slice); JsonParser parser = factory.createParser(stream)) {
+        try (InputStream stream = new ByteBufInputStream(slice); JsonParser parser = FACTORY.createParser(stream)) {
             TokenUsage usage = new TokenUsage();
             verify(parser.nextToken(), JsonToken.START_OBJECT);
 
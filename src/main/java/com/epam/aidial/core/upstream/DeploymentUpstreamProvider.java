@@ -1,5 +1,6 @@
 package com.epam.aidial.core.upstream;
 
+import com.epam.aidial.core.config.BalancingStrategy;
 import com.epam.aidial.core.config.Deployment;
 import com.epam.aidial.core.config.Model;
 import com.epam.aidial.core.config.Upstream;
@@ -24,4 +25,12 @@ public record DeploymentUpstreamProvider(Deployment deployment) implements Upstr
         upstream.setKey("whatever");
         return List.of(upstream);
     }
+
+    @Override
+    public BalancingStrategy getBalancingStrategy() {
+        if (deployment instanceof Model model && model.getBalancingStrategy() != null) {
+            return model.getBalancingStrategy();
+        }
+        return BalancingStrategy.WEIGHTED_ROUND_ROBIN;
+    }
 }
@@ -0,0 +1,49 @@
+package com.epam.aidial.core.upstream;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Recent times to the response headers of a deployment to estimate their percentiles.
+ * The state is lock-free: the samples are written to a ring by all event loops.
+ */
+public class LatencyTracker {
+
+    /**
+     * Min number of samples to estimate a percentile
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    private final AtomicLongArray samples;
+    private final AtomicLong count = new AtomicLong();
+
+    public LatencyTracker(int size) {
+        this.samples = new AtomicLongArray(size);
+    }
+
+    public void record(long latencyMs) {
+        long index = count.getAndIncrement();
+        samples.set((int) (index % samples.length()), latencyMs);
+    }
+
+    /**
+     * @param percentile percentile from 0 to 100
+     * @return the percentile of the recent samples in millis or -1 if there are too few samples.
+     */
+    public long percentile(double percentile) {
+        int size = (int) Math.min(count.get(), samples.length());
+        if (size < MIN_SAMPLES) {
+            return -1;
+        }
+
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        return sorted[Math.max(0, Math.min(index, size - 1))];
+    }
+}
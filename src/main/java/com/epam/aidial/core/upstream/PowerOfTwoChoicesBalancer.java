@@ -0,0 +1,94 @@
+package com.epam.aidial.core.upstream;
+
+import com.epam.aidial.core.config.Upstream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Implementation of latency- and load-aware load balancer.
+ * Each call picks two upstreams at random in proportion to their weights and returns the one with the lower cost:
+ * the moving average of the time to the response headers multiplied by the number of requests waiting for the headers
+ * and divided by the weight, so the weights act as capacity hints and a slow upstream gets less load than a fast one.
+ */
+@Slf4j
+public class PowerOfTwoChoicesBalancer implements LoadBalancer<UpstreamState> {
+
+    private final UpstreamState[] upstreams;
+    /**
+     * Cumulative weights of the upstreams to pick an upstream in proportion to its weight
+     */
+    private final long[] cumulativeWeights;
+
+    public PowerOfTwoChoicesBalancer(String deploymentName, List<Upstream> upstreams) {
+        if (upstreams == null || upstreams.isEmpty()) {
+            throw new IllegalArgumentException("Upstream list is null or empty for deployment: " + deploymentName);
+        }
+        int tier = upstreams.get(0).getTier();
+        for (Upstream upstream : upstreams) {
+            if (upstream.getTier() != tier) {
+                throw new IllegalArgumentException("Tier mismatch for deployment " + deploymentName);
+            }
+        }
+        this.upstreams = upstreams.stream()
+                .filter(upstream -> upstream.getWeight() > 0)
+                .map(upstream -> new UpstreamState(upstream, Upstream.ERROR_THRESHOLD))
+                .sorted(Comparator.reverseOrder())
+                .toArray(UpstreamState[]::new);
+        this.cumulativeWeights = new long[this.upstreams.length];
+        long total = 0;
+        for (int i = 0; i < this.upstreams.length; i++) {
+            total += this.upstreams[i].getUpstream().getWeight();
+            cumulativeWeights[i] = total;
+        }
+        if (this.upstreams.length == 0) {
+            log.warn("No available upstreams for deployment {} and tier {}", deploymentName, tier);
+        }
+    }
+
+    @Override
+    public UpstreamState next() {
+        if (upstreams.length == 0) {
+            return null;
+        }
+
+        UpstreamState first = pick();
+        UpstreamState second = pick();
+        boolean isFirstAvailable = first.isUpstreamAvailable();
+        boolean isSecondAvailable = second.isUpstreamAvailable();
+
+        if (isFirstAvailable && isSecondAvailable) {
+            return cost(first) <= cost(second) ? first : second;
+        }
+        if (isFirstAvailable) {
+            return first;
+        }
+        if (isSecondAvailable) {
+            return second;
+        }
+
+        // both choices are unavailable, the rest of the tier is checked
+        UpstreamState best = null;
+        for (UpstreamState upstream : upstreams) {
+            if (upstream.isUpstreamAvailable() && (best == null || cost(upstream) < cost(best))) {
+                best = upstream;
+            }
+        }
+        return best;
+    }
+
+    private UpstreamState pick() {
+        long total = cumulativeWeights[cumulativeWeights.length - 1];
+        long point = ThreadLocalRandom.current().nextLong(total);
+        int index = Arrays.binarySearch(cumulativeWeights, point + 1);
+        return upstreams[index >= 0 ? index : -index - 1];
+    }
+
+    private static double cost(UpstreamState upstream) {
+        // a millisecond is added, so an upstream without latency samples yet is still compared by the load
+        return (upstream.getLatency() + 1) * (upstream.getOutstanding() + 1) / upstream.getUpstream().getWeight();
+    }
+}
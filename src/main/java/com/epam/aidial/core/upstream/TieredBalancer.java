@@ -1,12 +1,13 @@
 package com.epam.aidial.core.upstream;
 
+import com.epam.aidial.core.config.BalancingStrategy;
 import com.epam.aidial.core.config.Upstream;
 import lombok.Getter;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
@@ -16,22 +17,36 @@ import javax.annotation.Nullable;
  */
 public class TieredBalancer implements LoadBalancer<UpstreamState> {
 
+    /**
+     * Number of recent times to the response headers kept for the deployment
+     */
+    private static final int LATENCY_SAMPLES = 256;
+
     @Getter
     private final String deploymentName;
     @Getter
     private final List<Upstream> originalUpstreams;
-    private final List<WeightedRoundRobinBalancer> tiers;
+    @Getter
+    private final BalancingStrategy strategy;
+    @Getter
+    private final LatencyTracker latencies = new LatencyTracker(LATENCY_SAMPLES);
+    private final List<LoadBalancer<UpstreamState>> tiers;
 
     public TieredBalancer(String deploymentName, List<Upstream> upstreams) {
+        this(deploymentName, upstreams, BalancingStrategy.WEIGHTED_ROUND_ROBIN);
+    }
+
+    public TieredBalancer(String deploymentName, List<Upstream> upstreams, BalancingStrategy strategy) {
         this.deploymentName = deploymentName;
         this.originalUpstreams = upstreams;
-        this.tiers = buildTiers(deploymentName, upstreams);
+        this.strategy = strategy;
+        this.tiers = buildTiers(deploymentName, upstreams, strategy);
     }
 
     @Nullable
     @Override
     public UpstreamState next() {
-        for (WeightedRoundRobinBalancer tier : tiers) {
+        for (LoadBalancer<UpstreamState> tier : tiers) {
             UpstreamState upstreamState = tier.next();
             if (upstreamState != null) {
                 return upstreamState;
@@ -41,17 +56,20 @@ public class TieredBalancer implements LoadBalancer<UpstreamState> {
         return null;
     }
 
-    private static List<WeightedRoundRobinBalancer> buildTiers(String deploymentName, List<Upstream> upstreams) {
-        List<WeightedRoundRobinBalancer> balancers = new ArrayList<>();
+    private static List<LoadBalancer<UpstreamState>> buildTiers(String deploymentName, List<Upstream> upstreams, BalancingStrategy strategy) {
+        List<LoadBalancer<UpstreamState>> balancers = new ArrayList<>();
+        // the tiers are ordered from the highest one (lowest tier value)
         Map<Integer, List<Upstream>> groups = upstreams.stream()
-                .collect(Collectors.groupingBy(Upstream::getTier));
+                .collect(Collectors.groupingBy(Upstream::getTier, TreeMap::new, Collectors.toList()));
 
         for (Map.Entry<Integer, List<Upstream>> entry : groups.entrySet()) {
-            balancers.add(new WeightedRoundRobinBalancer(deploymentName, entry.getValue()));
+            if (strategy == BalancingStrategy.POWER_OF_TWO_CHOICES) {
+                balancers.add(new PowerOfTwoChoicesBalancer(deploymentName, entry.getValue()));
+            } else {
+                balancers.add(new WeightedRoundRobinBalancer(deploymentName, entry.getValue()));
+            }
         }
 
-        balancers.sort(Comparator.naturalOrder());
-
         return balancers;
     }
 }
@@ -1,5 +1,6 @@
 package com.epam.aidial.core.upstream;
 
+import com.epam.aidial.core.config.BalancingStrategy;
 import com.epam.aidial.core.config.Upstream;
 
 import java.util.List;
@@ -8,4 +9,8 @@ public interface UpstreamProvider {
     String getName();
 
     List<Upstream> getUpstreams();
+
+    default BalancingStrategy getBalancingStrategy() {
+        return BalancingStrategy.WEIGHTED_ROUND_ROBIN;
+    }
 }
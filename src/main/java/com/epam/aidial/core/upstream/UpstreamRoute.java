@@ -16,20 +16,34 @@ import javax.annotation.Nullable;
  *     return "No route"; // if no upstream available or max retry attempts reached - return No route
  * }
  * Upstream upstream = get(); // get current upstream and send request
+ * start(); // report the request is sent to the current upstream
  * if (error) { // if request failed with 5xx or 429 - report current upstream as failed and call next for retry
  *     failed();
  *     next(); // retry
- * } else {
+ * } else if (success) {
  *     succeed(); // if 200 - report upstream as succeeded
+ * } else {
+ *     release(); // otherwise - report the response is received
  * }
  * </pre>
+ * A request which is slow to respond may be hedged: {@link #hedge()} returns a separate route for the request to another upstream,
+ * the route of the request which responds later is cancelled.
  */
 @Slf4j
 public class UpstreamRoute {
 
     private static final long DEFAULT_RETRY_AFTER_SECONDS_VALUE = 30;
+    /**
+     * Max number of upstreams picked to find another upstream for a hedged request
+     */
+    private static final int MAX_HEDGE_PICKS = 3;
 
     private final LoadBalancer<UpstreamState> balancer;
+    /**
+     * Recent times to the response headers of the deployment
+     */
+    @Nullable
+    private final LatencyTracker latencies;
     /**
      * The maximum number of upstreams this route can use due to retries.
      */
@@ -41,11 +55,21 @@ public class UpstreamRoute {
     @Nullable
     private UpstreamState upstreamState;
     private int used;
+    /**
+     * Time in millis when the current upstream was picked or -1 if the upstream is not waited for
+     */
+    private long startTime = -1;
 
-    public UpstreamRoute(LoadBalancer<UpstreamState> balancer, int maxUpstreamsToUse) {
+    public UpstreamRoute(LoadBalancer<UpstreamState> balancer, @Nullable LatencyTracker latencies, int maxUpstreamsToUse) {
+        this(balancer, latencies, maxUpstreamsToUse, balancer.next());
+    }
+
+    private UpstreamRoute(LoadBalancer<UpstreamState> balancer, @Nullable LatencyTracker latencies, int maxUpstreamsToUse,
+                          @Nullable UpstreamState upstreamState) {
         this.balancer = balancer;
+        this.latencies = latencies;
         this.maxUpstreamsToUse = maxUpstreamsToUse;
-        this.upstreamState = balancer.next();
+        this.upstreamState = upstreamState;
         this.used = upstreamState == null ? 0 : 1;
     }
 
@@ -73,6 +97,7 @@ public class UpstreamRoute {
     @Nullable
     public Upstream next() {
         // if max attempts reached - do not call balancer
+        finish(false);
         if (used + 1 > maxUpstreamsToUse) {
             this.upstreamState = null;
             return null;
@@ -100,6 +125,7 @@ public class UpstreamRoute {
         if (upstreamState != null) {
             upstreamState.failed(status, retryAfterSeconds);
         }
+        finish(false);
     }
 
     public void fail(HttpStatus status) {
@@ -114,6 +140,77 @@ public class UpstreamRoute {
         if (upstreamState != null) {
             upstreamState.succeeded();
         }
+        finish(true);
+    }
+
+    /**
+     * Report the response headers are received from the current upstream without success or failure, e.g. 4xx.
+     */
+    public void release() {
+        finish(true);
+    }
+
+    /**
+     * Report the request to the current upstream is cancelled, e.g. a hedged request responded first
+     * or the request is over without the response. Does nothing if the route is finished already.
+     */
+    public void cancel() {
+        finish(false);
+    }
+
+    /**
+     * Picks another available upstream of the same tier for a hedged request while the current upstream is waited for.
+     * The hedged route can use the rest of the attempts of this route for retries.
+     *
+     * @return the route of the hedged request or null if there is no other available upstream in the tier or the attempts are used.
+     */
+    @Nullable
+    public UpstreamRoute hedge() {
+        if (upstreamState == null || used >= maxUpstreamsToUse) {
+            return null;
+        }
+
+        for (int i = 0; i < MAX_HEDGE_PICKS; i++) {
+            UpstreamState candidate = balancer.next();
+            if (candidate == null || candidate.getUpstream().getTier() != upstreamState.getUpstream().getTier()) {
+                return null;
+            }
+            if (candidate != upstreamState) {
+                return new UpstreamRoute(balancer, latencies, maxUpstreamsToUse - used, candidate);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param percentile percentile from 0 to 100
+     * @return the percentile of the recent times to the response headers of the deployment in millis or -1 if unknown.
+     */
+    public long latencyPercentile(double percentile) {
+        return latencies == null ? -1 : latencies.percentile(percentile);
+    }
+
+    /**
+     * Report the request is sent to the current upstream, so the upstream is loaded until the route is finished
+     * by {@link #succeed()}, {@link #fail(HttpStatus)}, {@link #release()}, {@link #cancel()} or {@link #next()}.
+     */
+    public void start() {
+        if (upstreamState != null && startTime < 0) {
+            upstreamState.started();
+            startTime = System.currentTimeMillis();
+        }
+    }
+
+    private void finish(boolean responded) {
+        if (upstreamState != null && startTime >= 0) {
+            long latency = responded ? System.currentTimeMillis() - startTime : -1;
+            upstreamState.finished(latency);
+            if (latencies != null && latency >= 0) {
+                latencies.record(latency);
+            }
+            startTime = -1;
+        }
     }
 
     /**
@@ -8,6 +8,8 @@ import com.epam.aidial.core.config.Deployment;
 import com.epam.aidial.core.config.Model;
 import com.epam.aidial.core.config.Route;
 import com.epam.aidial.core.config.Upstream;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.Collection;
@@ -19,8 +21,9 @@ import java.util.Map;
 
 /**
  * Provides UpstreamRoute for the given UpstreamProvider.
- * This class caches load balancers for deployments and routes from config,
- * for other deployments (for example: custom applications) each request will build a new load balancer.
+ * This class caches load balancers for deployments and routes from config.
+ * Load balancers for other deployments (for example: custom applications) are kept in a bounded cache by deployment name,
+ * which is the resource url for custom applications. Cached entries are evicted when the cache is full or the application is updated.
  * If upstreams configuration for any deployment changed - load balancer state will be invalidated.
  */
 @Slf4j
@@ -31,11 +34,23 @@ public class UpstreamRouteProvider {
      */
     private static final int MAX_RETRY_COUNT = 5;
 
+    /**
+     * Max number of cached load balancers for deployments which are not in config
+     */
+    private static final int MAX_CACHED_BALANCERS = 10_000;
+
     /**
      * Cached load balancers for config deployments
      */
     private volatile Map<String, TieredBalancer> balancers = new HashMap<>();
 
+    /**
+     * Cached load balancers for deployments which are not in config, e.g. custom applications
+     */
+    private final Cache<String, TieredBalancer> applicationBalancers = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHED_BALANCERS)
+            .build();
+
     /**
      * Returns UpstreamRoute for the given provider
      *
@@ -49,10 +64,25 @@ public class UpstreamRouteProvider {
         TieredBalancer balancer = balancers.get(deploymentName);
         if (balancer == null) {
             // if no state found for upstream, it's probably custom application
-            balancer = new TieredBalancer(deploymentName, upstreams);
+            balancer = applicationBalancers.getIfPresent(deploymentName);
+            if (balancer == null || !isUpstreamsTheSame(provider, balancer)) {
+                balancer = applicationBalancers.asMap().compute(deploymentName, (key, cached) ->
+                        (cached != null && isUpstreamsTheSame(provider, cached))
+                                ? cached
+                                : new TieredBalancer(deploymentName, upstreams, provider.getBalancingStrategy()));
+            }
         }
 
-        return new UpstreamRoute(balancer, MAX_RETRY_COUNT);
+        return new UpstreamRoute(balancer, balancer.getLatencies(), MAX_RETRY_COUNT);
+    }
+
+    /**
+     * Evicts the cached load balancer of the deployment which is not in config, e.g. when a custom application is updated or deleted.
+     *
+     * @param deploymentName deployment name, for custom applications it is the resource url
+     */
+    public void evict(String deploymentName) {
+        applicationBalancers.invalidate(deploymentName);
     }
 
     public synchronized void onUpdate(Config config) {
@@ -105,7 +135,7 @@ public class UpstreamRouteProvider {
         if (previous != null && isUpstreamsTheSame(upstream, previous)) {
             balancer = previous;
         } else {
-            balancer = new TieredBalancer(name, upstream.getUpstreams());
+            balancer = new TieredBalancer(name, upstream.getUpstreams(), upstream.getBalancingStrategy());
         }
         TieredBalancer previousBalancer = newState.putIfAbsent(name, balancer);
         if (previousBalancer != null) {
@@ -114,6 +144,7 @@ public class UpstreamRouteProvider {
     }
 
     private static boolean isUpstreamsTheSame(UpstreamProvider upstreamProvider, TieredBalancer balancer) {
-        return new HashSet<>(upstreamProvider.getUpstreams()).equals(new HashSet<>(balancer.getOriginalUpstreams()));
+        return upstreamProvider.getBalancingStrategy() == balancer.getStrategy()
+                && new HashSet<>(upstreamProvider.getUpstreams()).equals(new HashSet<>(balancer.getOriginalUpstreams()));
     }
 }
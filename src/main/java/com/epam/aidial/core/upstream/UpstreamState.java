@@ -6,7 +6,12 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Availability of an upstream. The state is lock-free: it's checked by every request to the deployment from all event loops.
+ */
 @Slf4j
 public class UpstreamState implements Comparable<UpstreamState> {
 
@@ -17,15 +22,25 @@ public class UpstreamState implements Comparable<UpstreamState> {
     private static final long INITIAL_BACKOFF_DELAY_MS = 1000;
     // max backoff delay - 5 minutes
     private static final long MAX_BACKOFF_DELAY_MS = 5 * 60 * 1000;
+    // weight of the last sample in the moving average of the latency
+    private static final double LATENCY_SMOOTHING = 0.2;
 
     /**
      * Amount of 5xx errors from upstream
      */
-    private int errorCount;
+    private final AtomicInteger errorCount = new AtomicInteger();
     /**
      * Timestamp in millis when upstream may be available
      */
-    private long retryAfter = -1;
+    private volatile long retryAfter = -1;
+    /**
+     * Number of requests waiting for the response headers from upstream
+     */
+    private final AtomicInteger outstanding = new AtomicInteger();
+    /**
+     * Exponentially weighted moving average of the time to the response headers in millis stored as double bits
+     */
+    private final AtomicLong latency = new AtomicLong(Double.doubleToLongBits(0));
 
     public UpstreamState(Upstream upstream, int errorsThreshold) {
         this.upstream = upstream;
@@ -38,16 +53,17 @@ public class UpstreamState implements Comparable<UpstreamState> {
      * @param status response status code from upstream
      * @param retryAfterSeconds time in seconds when upstream may become available; only take into account with 429 status code
      */
-    public synchronized void failed(HttpStatus status, long retryAfterSeconds) {
+    public void failed(HttpStatus status, long retryAfterSeconds) {
         if (status == HttpStatus.TOO_MANY_REQUESTS) {
             retryAfter = System.currentTimeMillis() + Math.max(retryAfterSeconds, 0) * 1000;
             log.warn("Upstream {} limit hit: retry after {}", upstream.getEndpoint(), Instant.ofEpochMilli(retryAfter).toString());
         }
 
         if (status.is5xx()) {
-            if (++errorCount >= errorsThreshold) {
+            int errors = errorCount.incrementAndGet();
+            if (errors >= errorsThreshold) {
                 retryAfter = System.currentTimeMillis()
-                             + Math.min(INITIAL_BACKOFF_DELAY_MS * (1L << errorCount), MAX_BACKOFF_DELAY_MS);
+                             + Math.min(INITIAL_BACKOFF_DELAY_MS * (1L << Math.min(errors, 62)), MAX_BACKOFF_DELAY_MS);
             }
         }
     }
@@ -55,13 +71,18 @@ public class UpstreamState implements Comparable<UpstreamState> {
     /**
      * reset errors state
      */
-    public synchronized void succeeded() {
-        // reset errors
-        errorCount = 0;
-        retryAfter = -1;
+    public void succeeded() {
+        // reset errors, the fields are written only if changed not to invalidate the cache line shared by event loops
+        if (errorCount.get() != 0) {
+            errorCount.set(0);
+        }
+        if (retryAfter != -1) {
+            retryAfter = -1;
+        }
     }
 
-    public synchronized boolean isUpstreamAvailable() {
+    public boolean isUpstreamAvailable() {
+        long retryAfter = this.retryAfter;
         if (retryAfter < 0) {
             return true;
         }
@@ -69,6 +90,42 @@ public class UpstreamState implements Comparable<UpstreamState> {
         return System.currentTimeMillis() > retryAfter;
     }
 
+    /**
+     * Register a request sent to upstream.
+     */
+    public void started() {
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * Register the response headers or a failure of a request sent to upstream.
+     *
+     * @param latencyMs time to the response headers in millis or negative if the request failed
+     */
+    public void finished(long latencyMs) {
+        outstanding.decrementAndGet();
+        if (latencyMs < 0) {
+            return;
+        }
+
+        while (true) {
+            long current = latency.get();
+            double average = Double.longBitsToDouble(current);
+            double updated = (average == 0) ? latencyMs : average + LATENCY_SMOOTHING * (latencyMs - average);
+            if (latency.compareAndSet(current, Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public double getLatency() {
+        return Double.longBitsToDouble(latency.get());
+    }
+
     @Override
     public int compareTo(UpstreamState upstreamState) {
         return Integer.compare(upstream.getWeight(), upstreamState.getUpstream().getWeight());
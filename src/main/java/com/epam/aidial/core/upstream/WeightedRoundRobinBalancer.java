@@ -5,22 +5,23 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
 
 /**
  * Implementation of weighted round-robin load balancer.
  * Load balancer tracks upstream statistics and guaranty spreading the load according to the upstreams weight
+ * <p>
+ *     The balancer uses smooth weighted round-robin: every call adds the weight of each available upstream to its current weight,
+ *     picks the upstream with the highest current weight and subtracts the total weight of the available upstreams from it.
+ *     A call takes O(n) time and memory does not depend on the weights, the state is guarded by a short lock.
+ * </p>
  */
 @Slf4j
 public class WeightedRoundRobinBalancer implements Comparable<WeightedRoundRobinBalancer>, LoadBalancer<UpstreamState> {
 
     private final int tier;
     private final List<UpstreamState> upstreams;
-    private final long[] upstreamsWeights;
-    private final long[] upstreamsUsage;
-    private final long totalWeight;
-    private long totalUsage;
-    private final PriorityQueue<UpstreamUsage> upstreamPriority = new PriorityQueue<>((a, b) -> Double.compare(b.delta, a.delta));
+    private final long[] weights;
+    private final long[] currentWeights;
 
     public WeightedRoundRobinBalancer(String deploymentName, List<Upstream> upstreams) {
         if (upstreams == null || upstreams.isEmpty()) {
@@ -38,42 +39,38 @@ public class WeightedRoundRobinBalancer implements Comparable<WeightedRoundRobin
                 .map(upstream -> new UpstreamState(upstream, Upstream.ERROR_THRESHOLD))
                 .sorted(Comparator.reverseOrder())
                 .toList();
-        this.totalWeight = this.upstreams.stream().map(UpstreamState::getUpstream).mapToLong(Upstream::getWeight).sum();
-        this.upstreamsUsage = new long[this.upstreams.size()];
-        this.upstreamsWeights = this.upstreams.stream().map(UpstreamState::getUpstream).mapToLong(Upstream::getWeight).toArray();
+        this.weights = this.upstreams.stream().map(UpstreamState::getUpstream).mapToLong(Upstream::getWeight).toArray();
+        this.currentWeights = new long[this.upstreams.size()];
         if (this.upstreams.isEmpty()) {
             log.warn("No available upstreams for deployment {} and tier {}", deploymentName, tier);
         }
     }
 
     @Override
-    public synchronized UpstreamState next() {
+    public UpstreamState next() {
         if (upstreams.isEmpty()) {
             return null;
         }
-        try {
-            int size = upstreams.size();
+
+        int size = upstreams.size();
+        synchronized (currentWeights) {
+            int best = -1;
+            long totalWeight = 0;
             for (int i = 0; i < size; i++) {
-                UpstreamState upstreamState = upstreams.get(i);
-                double actualUsageRate = upstreamsUsage[i] == 0 ? 0 : (double) upstreamsUsage[i] / totalUsage;
-                double expectedUsageRate = (double) upstreamsWeights[i] / totalWeight;
-                double delta = expectedUsageRate - actualUsageRate;
-                // for precise load balancing we need to add all upstreams to the priority queue
-                upstreamPriority.offer(new UpstreamUsage(upstreamState, i, delta));
-            }
-            // find the best available upstream and return it
-            while (!upstreamPriority.isEmpty()) {
-                UpstreamUsage candidate = upstreamPriority.poll();
-                totalUsage += 1;
-                upstreamsUsage[candidate.upstreamIndex] += 1;
-                if (candidate.upstream.isUpstreamAvailable()) {
-                    return candidate.upstream;
+                // unavailable upstreams keep their current weight and take their turn once they are back
+                if (upstreams.get(i).isUpstreamAvailable()) {
+                    currentWeights[i] += weights[i];
+                    totalWeight += weights[i];
+                    if (best < 0 || currentWeights[i] > currentWeights[best]) {
+                        best = i;
+                    }
                 }
             }
-            return null;
-        } finally {
-            // clear state
-            upstreamPriority.clear();
+            if (best < 0) {
+                return null;
+            }
+            currentWeights[best] -= totalWeight;
+            return upstreams.get(best);
         }
     }
 
@@ -81,7 +78,4 @@ public class WeightedRoundRobinBalancer implements Comparable<WeightedRoundRobin
     public int compareTo(WeightedRoundRobinBalancer weightedRoundRobinBalancer) {
         return Integer.compare(tier, weightedRoundRobinBalancer.tier);
     }
-
-    private record UpstreamUsage(UpstreamState upstream, int upstreamIndex, double delta) {
-    }
 }
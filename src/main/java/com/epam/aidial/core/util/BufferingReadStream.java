@@ -1,6 +1,7 @@
 package com.epam.aidial.core.util;
 
 import com.epam.aidial.core.function.BaseResponseFunction;
+import com.epam.aidial.core.limiter.MemoryBudget;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.buffer.Buffer;
@@ -8,15 +9,41 @@ import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.streams.Pipe;
 import io.vertx.core.streams.ReadStream;
 import io.vertx.core.streams.impl.PipeImpl;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.function.LongSupplier;
+
+/**
+ * Buffers the stream to replay it to the pipe and keeps the received content for post-processing.
+ * <p>
+ *     The content is captured up to the limit. The rest is passed through and discarded, so the consumers of the events
+ *     must collect what they need incrementally with the stream handler.
+ * </p>
+ */
 @Slf4j
 @Getter
 public class BufferingReadStream implements ReadStream<Buffer> {
 
     private final ReadStream<Buffer> stream;
     private final Buffer content;
+    private final int captureLimit;
+    private final MemoryBudget.Lease memoryLease;
+    /**
+     * Total number of received bytes including the ones which are not captured.
+     */
+    private long length;
+    private boolean truncated;
+    /**
+     * Source of the chunk timestamps in millis.
+     */
+    @Getter(AccessLevel.NONE)
+    private final LongSupplier clock;
+    /**
+     * Time in millis when the last chunk is received or the stream is created.
+     */
+    private long chunkTimestamp;
 
     private Handler<Buffer> chunkHandler;
     private Handler<Void> endHandler;
@@ -25,8 +52,8 @@ public class BufferingReadStream implements ReadStream<Buffer> {
     private Throwable error;
     private boolean ended;
     private boolean reset;
-    // set the position to unset by default
-    private int lastChunkPos = -1;
+    // the chunks starting from the last event are held back until the end of the response, null until the last event is met
+    private Buffer lastChunks;
     private final EventStreamParser eventStreamParser;
     private Future<Boolean> streamHandlerFuture;
 
@@ -39,8 +66,38 @@ public class BufferingReadStream implements ReadStream<Buffer> {
     }
 
     public BufferingReadStream(ReadStream<Buffer> stream, int initialSize, BaseResponseFunction streamHandler) {
+        this(stream, initialSize, streamHandler, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param captureLimit - max number of bytes of the content to keep.
+     */
+    public BufferingReadStream(ReadStream<Buffer> stream, int initialSize, BaseResponseFunction streamHandler, int captureLimit) {
+        this(stream, initialSize, streamHandler, captureLimit, null);
+    }
+
+    /**
+     * @param captureLimit - max number of bytes of the content to keep.
+     * @param memoryLease - lease to account the kept content in the memory budget of the node.
+     */
+    public BufferingReadStream(ReadStream<Buffer> stream, int initialSize, BaseResponseFunction streamHandler, int captureLimit,
+                               MemoryBudget.Lease memoryLease) {
+        this(stream, initialSize, streamHandler, captureLimit, memoryLease, System::currentTimeMillis);
+    }
+
+    /**
+     * @param captureLimit - max number of bytes of the content to keep.
+     * @param memoryLease - lease to account the kept content in the memory budget of the node.
+     * @param clock - source of the chunk timestamps in millis.
+     */
+    public BufferingReadStream(ReadStream<Buffer> stream, int initialSize, BaseResponseFunction streamHandler, int captureLimit,
+                               MemoryBudget.Lease memoryLease, LongSupplier clock) {
         this.stream = stream;
-        this.content = Buffer.buffer(initialSize);
+        this.content = Buffer.buffer(Math.min(initialSize, captureLimit));
+        this.captureLimit = captureLimit;
+        this.memoryLease = memoryLease;
+        this.clock = clock;
+        this.chunkTimestamp = clock.getAsLong();
         if (streamHandler == null) {
             this.eventStreamParser = null;
         } else {
@@ -126,44 +183,60 @@ public class BufferingReadStream implements ReadStream<Buffer> {
     }
 
     public synchronized void end(HttpServerResponse response) {
-        if (lastChunkPos != -1) {
-            Buffer lastChunk = content.slice(lastChunkPos, content.length());
-            response.end(lastChunk);
+        if (lastChunks != null) {
+            response.end(lastChunks);
         } else {
             response.end();
         }
     }
 
     private synchronized void handleChunk(Buffer chunk) {
-        int pos = content.length();
-        content.appendBuffer(chunk);
-        if (lastChunkPos != -1) {
-            // stop streaming
-            return;
-        }
+        chunkTimestamp = clock.getAsLong();
+        capture(chunk);
         if (eventStreamParser != null) {
             // build chain of chunk futures: the chunks should be sent in the same order as they arrive
             if (streamHandlerFuture == null) {
-                streamHandlerFuture = parseChunk(chunk, pos);
+                streamHandlerFuture = parseChunk(chunk);
             } else {
-                streamHandlerFuture = streamHandlerFuture.transform(ignore -> parseChunk(chunk, pos));
+                streamHandlerFuture = streamHandlerFuture.transform(ignore -> parseChunk(chunk));
             }
         } else {
             notifyOnChunk(chunk);
         }
     }
 
-    private synchronized Future<Boolean> parseChunk(Buffer chunk, int pos) {
+    private void capture(Buffer chunk) {
+        length += chunk.length();
+        if (truncated) {
+            return;
+        }
+
+        int available = captureLimit - content.length();
+        int captured = Math.min(chunk.length(), available);
+        if (chunk.length() <= available) {
+            content.appendBuffer(chunk);
+        } else {
+            content.appendBuffer(chunk, 0, available);
+            truncated = true;
+        }
+
+        if (memoryLease != null) {
+            memoryLease.acquire(captured);
+        }
+    }
+
+    private synchronized Future<Boolean> parseChunk(Buffer chunk) {
         return eventStreamParser.parse(chunk)
-                .andThen(result -> handleStreamEvent(chunk, result.result() == Boolean.TRUE, pos));
+                .andThen(result -> handleStreamEvent(chunk, result.result() == Boolean.TRUE));
     }
 
-    private synchronized void handleStreamEvent(Buffer chunk, boolean isLastChunk, int pos) {
+    private synchronized void handleStreamEvent(Buffer chunk, boolean isLastChunk) {
         if (isLastChunk) {
-            if (lastChunkPos == -1) {
-                lastChunkPos = pos;
+            if (lastChunks == null) {
+                lastChunks = Buffer.buffer();
             }
             // don't send the last chunk
+            lastChunks.appendBuffer(chunk);
             return;
         }
         notifyOnChunk(chunk);
@@ -172,18 +245,33 @@ public class BufferingReadStream implements ReadStream<Buffer> {
     private synchronized void handleEnd(Void ignored) {
         ended = true;
         if (streamHandlerFuture == null) {
+            closeParser();
             notifyOnEnd(ignored);
         } else {
-            streamHandlerFuture.onComplete(ignore -> notifyOnEnd(ignored));
+            streamHandlerFuture.onComplete(ignore -> {
+                closeParser();
+                notifyOnEnd(ignored);
+            });
         }
     }
 
     private synchronized void handleException(Throwable exception) {
         error = exception;
         ended = true;
+        if (streamHandlerFuture == null) {
+            closeParser();
+        } else {
+            streamHandlerFuture.onComplete(ignore -> closeParser());
+        }
         notifyOnException(exception);
     }
 
+    private synchronized void closeParser() {
+        if (eventStreamParser != null) {
+            eventStreamParser.close();
+        }
+    }
+
     private synchronized void notifyOnChunk(Buffer chunk) {
         if (chunkHandler != null) {
             try {
@@ -0,0 +1,209 @@
+package com.epam.aidial.core.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+import static com.epam.aidial.core.util.MergeChunks.CANNOT_MERGE_NON_INDEXED_LIST_ERROR_MESSAGE;
+import static com.epam.aidial.core.util.MergeChunks.INCONSISTENT_INDEXED_LIST_ERROR_MESSAGE;
+import static com.epam.aidial.core.util.MergeChunks.INDEX_ERROR_MESSAGE;
+import static com.epam.aidial.core.util.MergeChunks.LIST_OF_DICTS_ERROR_MESSAGE;
+
+/**
+ * Merges chunks of a streaming response one by one as they arrive with the same rules as {@link MergeChunks}.
+ * <p>
+ *     The merged value is kept in mutable containers: strings are appended to builders, objects and indexed lists are updated in place.
+ *     So merging takes time linear in the total size of the chunks and the result is converted to JSON once.
+ *     Object elements of lists lose their indices in the result.
+ * </p>
+ */
+public class ChunkMerger {
+
+    private final List<String> path = new ArrayList<>();
+    /**
+     * Either null, {@link StringBuilder} for a string, {@link Map} for an object, {@link List} for an indexed list
+     * or {@link JsonNode} for the rest: numbers, booleans, nulls and non-indexed lists.
+     */
+    private Object value;
+
+    public void merge(@Nullable JsonNode chunk) {
+        value = merge(value, chunk);
+    }
+
+    @Nullable
+    public JsonNode result() {
+        return toJson(value, false);
+    }
+
+    private Object merge(Object target, JsonNode source) {
+        if (source == null || source.isNull()) {
+            return target;
+        }
+
+        if (target == null || (target instanceof JsonNode node && node.isNull())) {
+            if (source.isObject()) {
+                target = new LinkedHashMap<String, Object>();
+            } else if (source.isArray()) {
+                target = new ArrayList<>();
+            } else if (source.isTextual()) {
+                return new StringBuilder(source.textValue());
+            } else {
+                return source;
+            }
+        }
+
+        if (target instanceof Map && source.isObject()) {
+            return mergeObjects(cast(target), (ObjectNode) source);
+        } else if (target instanceof List && source.isArray()) {
+            return mergeArrays(cast(target), (ArrayNode) source);
+        } else if (target instanceof StringBuilder text && source.isTextual()) {
+            return text.append(source.textValue());
+        } else if (target instanceof JsonNode node) {
+            if (node.isArray() && source.isArray()) {
+                return mergeNonIndexedArrays(node, (ArrayNode) source);
+            } else if (node.isIntegralNumber() && source.isIntegralNumber()) {
+                return source;
+            } else if (node.isFloatingPointNumber() && source.isFloatingPointNumber()) {
+                return source;
+            } else if (node.isBoolean() && source.isBoolean()) {
+                return source;
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("Can't merge %s into %s at path %s", source.asText(), text(target), String.join(".", path)));
+    }
+
+    private Object mergeObjects(Map<String, Object> target, ObjectNode source) {
+        for (Map.Entry<String, JsonNode> entry : source.properties()) {
+            String name = entry.getKey();
+            path.add(name);
+            Object merged = merge(target.get(name), entry.getValue());
+            target.put(name, (merged == null) ? NullNode.getInstance() : merged);
+            path.remove(path.size() - 1);
+        }
+        return target;
+    }
+
+    private Object mergeArrays(List<Object> target, ArrayNode source) {
+        if (source.isEmpty()) {
+            return target;
+        }
+
+        boolean isSourceIndexed = isIndexedArray(source);
+        if (!isSourceIndexed) {
+            if (target.isEmpty()) {
+                return source;
+            }
+            throw new IllegalArgumentException(CANNOT_MERGE_NON_INDEXED_LIST_ERROR_MESSAGE);
+        }
+
+        for (int i = 0; i < source.size(); i++) {
+            JsonNode elem = source.get(i);
+            if (!elem.isObject()) {
+                throw new IllegalArgumentException(LIST_OF_DICTS_ERROR_MESSAGE);
+            }
+            JsonNode indexNode = elem.get("index");
+            if (!indexNode.isInt()) {
+                throw new IllegalArgumentException(INDEX_ERROR_MESSAGE);
+            }
+            int index = indexNode.asInt();
+            path.add("[" + i + "]");
+            if (index < target.size()) {
+                target.set(index, merge(target.get(index), elem));
+            } else {
+                for (int j = target.size(); j < index; j++) {
+                    Map<String, Object> padding = new LinkedHashMap<>();
+                    padding.put("index", IntNode.valueOf(j));
+                    target.add(padding);
+                }
+                target.add(merge(null, elem));
+            }
+            path.remove(path.size() - 1);
+        }
+        return target;
+    }
+
+    private static Object mergeNonIndexedArrays(JsonNode target, ArrayNode source) {
+        if (source.isEmpty()) {
+            return target;
+        }
+        // validates the source, a non-indexed list can't be merged anyway
+        isIndexedArray(source);
+        throw new IllegalArgumentException(CANNOT_MERGE_NON_INDEXED_LIST_ERROR_MESSAGE);
+    }
+
+    private static boolean isIndexedArray(ArrayNode array) {
+        boolean allIndexed = true;
+        boolean anyIndexed = false;
+
+        for (JsonNode node : array) {
+            if (node.isObject() && node.has("index")) {
+                anyIndexed = true;
+            } else {
+                allIndexed = false;
+            }
+        }
+
+        if (anyIndexed && !allIndexed) {
+            throw new IllegalArgumentException(INCONSISTENT_INDEXED_LIST_ERROR_MESSAGE);
+        }
+        return allIndexed;
+    }
+
+    private static JsonNode toJson(Object value, boolean isElement) {
+        if (value == null) {
+            return null;
+        }
+
+        if (value instanceof StringBuilder text) {
+            return new TextNode(text.toString());
+        }
+
+        if (value instanceof Map<?, ?> map) {
+            ObjectNode object = ProxyUtil.MAPPER.createObjectNode();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                String name = (String) entry.getKey();
+                if (!isElement || !name.equals("index")) {
+                    object.set(name, toJson(entry.getValue(), false));
+                }
+            }
+            return object;
+        }
+
+        if (value instanceof List<?> list) {
+            ArrayNode array = ProxyUtil.MAPPER.createArrayNode();
+            for (Object element : list) {
+                array.add(toJson(element, true));
+            }
+            return array;
+        }
+
+        JsonNode node = (JsonNode) value;
+        if (node.isContainerNode()) {
+            node = node.deepCopy();
+            MergeChunks.removeIndices(node);
+        }
+        return node;
+    }
+
+    private static String text(Object value) {
+        if (value instanceof JsonNode node) {
+            return node.asText();
+        }
+        return (value instanceof StringBuilder) ? value.toString() : "";
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value) {
+        return (T) value;
+    }
+}
@@ -0,0 +1,121 @@
+package com.epam.aidial.core.util;
+
+import com.epam.aidial.core.config.FlushPolicy;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Coalesces the chunks written to the stream according to the {@link FlushPolicy}, so a fast stream of small chunks,
+ * e.g. a token per event, costs fewer writes to the socket.
+ * <p>
+ *     The first chunk is written right away not to delay the first token.
+ *     The held chunks must be flushed with {@link #flush()} before the stream is written directly.
+ * </p>
+ */
+public class CoalescingWriteStream implements WriteStream<Buffer> {
+
+    private final Vertx vertx;
+    private final WriteStream<Buffer> stream;
+    private final long delay;
+    private final int size;
+
+    private boolean first = true;
+    private Buffer pending;
+    private long timerId = -1;
+
+    public CoalescingWriteStream(Vertx vertx, WriteStream<Buffer> stream, FlushPolicy policy) {
+        this.vertx = vertx;
+        this.stream = stream;
+        this.delay = policy.getDelay();
+        this.size = policy.getSize();
+    }
+
+    @Override
+    public synchronized WriteStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+        stream.exceptionHandler(handler);
+        return this;
+    }
+
+    @Override
+    public synchronized Future<Void> write(Buffer data) {
+        if (first) {
+            first = false;
+            return stream.write(data);
+        }
+
+        if (pending == null) {
+            pending = Buffer.buffer();
+        }
+        pending.appendBuffer(data);
+
+        // the chunks are written as they arrive if neither bound is set
+        boolean bySize = size > 0;
+        boolean byDelay = delay > 0;
+        if ((bySize && pending.length() >= size) || (!bySize && !byDelay)) {
+            return flush();
+        }
+
+        if (timerId < 0 && byDelay) {
+            timerId = vertx.setTimer(delay, ignore -> onTimer());
+        }
+        return Future.succeededFuture();
+    }
+
+    @Override
+    public void write(Buffer data, Handler<AsyncResult<Void>> handler) {
+        Future<Void> result = write(data);
+        if (handler != null) {
+            result.onComplete(handler);
+        }
+    }
+
+    /**
+     * Writes the held chunks to the stream.
+     */
+    public synchronized Future<Void> flush() {
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+            timerId = -1;
+        }
+
+        if (pending == null || pending.length() == 0) {
+            return Future.succeededFuture();
+        }
+
+        Buffer data = pending;
+        pending = null;
+        return stream.write(data);
+    }
+
+    @Override
+    public void end(Handler<AsyncResult<Void>> handler) {
+        flush();
+        stream.end(handler);
+    }
+
+    @Override
+    public synchronized WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
+        stream.setWriteQueueMaxSize(maxSize);
+        return this;
+    }
+
+    @Override
+    public synchronized boolean writeQueueFull() {
+        return stream.writeQueueFull();
+    }
+
+    @Override
+    public synchronized WriteStream<Buffer> drainHandler(Handler<Void> handler) {
+        stream.drainHandler(handler);
+        return this;
+    }
+
+    private synchronized void onTimer() {
+        timerId = -1;
+        flush();
+    }
+}
@@ -4,15 +4,26 @@ import com.epam.aidial.core.function.BaseResponseFunction;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.util.ByteProcessor;
 import io.vertx.core.Future;
 import io.vertx.core.buffer.Buffer;
-import jodd.io.CharBufferReader;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
+/**
+ * Parses the server-sent events of a streaming response and passes the JSON data of the events to the handler.
+ * <p>
+ *     The data of an event is pre-scanned for the keys the handler looks for, the events without them are not parsed as JSON.
+ *     The parser is not thread-safe: the chunks are parsed one by one in the order they arrive.
+ *     The parser holds a pooled buffer, so it must be closed when the stream is over.
+ * </p>
+ */
 @Slf4j
 public class EventStreamParser {
 
@@ -25,9 +36,18 @@ public class EventStreamParser {
         public Future<Void> apply(ObjectNode jsonNodes) {
             return Future.succeededFuture();
         }
+
+        @Override
+        public Set<String> eventKeys() {
+            return Set.of();
+        }
     };
 
     private final ByteBuf buffer;
+    /**
+     * Quoted keys the handler looks for or null if the handler needs every event.
+     */
+    private final byte[][] keys;
 
     private int eventIndex;
 
@@ -37,6 +57,8 @@ public class EventStreamParser {
 
     private boolean lastChunk = false;
 
+    private boolean closed;
+
     private final BaseResponseFunction handler;
 
     private Stages stage;
@@ -47,14 +69,14 @@ public class EventStreamParser {
         EVENT, DATA, EOL
     }
 
-
     public EventStreamParser(int initialSizeHint, BaseResponseFunction handler) {
         this.handler = handler == null ? DEFAULT_HANDLER : handler;
-        buffer = ByteBufAllocator.DEFAULT.heapBuffer(initialSizeHint, Integer.MAX_VALUE);
+        this.keys = toKeys(this.handler.eventKeys());
+        buffer = ByteBufAllocator.DEFAULT.directBuffer(initialSizeHint, Integer.MAX_VALUE);
     }
 
-    public synchronized Future<Boolean> parse(Buffer chunk) {
-        if (lastChunk) {
+    public Future<Boolean> parse(Buffer chunk) {
+        if (lastChunk || closed) {
             return Future.succeededFuture(true);
         }
         chunkIndex = 0;
@@ -108,13 +130,19 @@ public class EventStreamParser {
             boolean done = isLastMessage();
             if (done) {
                 lastChunk = true;
+                close();
+                return;
+            }
+            if (!hasKeys()) {
+                buffer.clear();
+                stage = Stages.EOL;
                 return;
             }
             if (futures == null) {
                 futures = new ArrayList<>();
             }
-            try (CharBufferReader reader = toCharBufferReader()) {
-                ObjectNode tree = (ObjectNode) ProxyUtil.MAPPER.readTree(reader);
+            try (InputStream stream = new ByteBufInputStream(buffer)) {
+                ObjectNode tree = (ObjectNode) ProxyUtil.MAPPER.readTree(stream);
                 Future<Void> future = handler.apply(tree)
                         .onFailure(error -> log.warn("Error occurred at handling json data from chunk", error));
                 futures.add(future);
@@ -127,21 +155,74 @@ public class EventStreamParser {
         }
     }
 
-    private CharBufferReader toCharBufferReader() {
-        return new CharBufferReader(StandardCharsets.UTF_8.decode(buffer.nioBuffer()));
+    /**
+     * Releases the buffer. The chunks passed after are ignored.
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            buffer.release();
+        }
     }
 
     private boolean accumulateBuffer(Buffer chunk) {
-        for (; chunkIndex < chunk.length(); chunkIndex++) {
-            byte b = chunk.getByte(chunkIndex);
-            if (b == '\n' || b == '\r') {
-                return true;
+        ByteBuf bytes = chunk.getByteBuf();
+        int end = bytes.forEachByte(chunkIndex, chunk.length() - chunkIndex, ByteProcessor.FIND_CRLF);
+        if (end < 0) {
+            buffer.writeBytes(bytes, chunkIndex, chunk.length() - chunkIndex);
+            chunkIndex = chunk.length();
+            return false;
+        }
+        buffer.writeBytes(bytes, chunkIndex, end - chunkIndex);
+        chunkIndex = end;
+        return true;
+    }
+
+    /**
+     * Scans the data of the event for the quoted keys. A key may be matched inside a string value, which only costs a parse.
+     */
+    private boolean hasKeys() {
+        if (keys == null) {
+            return true;
+        }
+        int end = buffer.writerIndex();
+        for (int i = buffer.readerIndex(); i < end; i++) {
+            if (buffer.getByte(i) != '"') {
+                continue;
+            }
+            for (byte[] key : keys) {
+                if (matches(i, end, key)) {
+                    return true;
+                }
             }
-            buffer.writeByte(b);
         }
         return false;
     }
 
+    private boolean matches(int index, int end, byte[] key) {
+        if (index + key.length > end) {
+            return false;
+        }
+        for (int j = 0; j < key.length; j++) {
+            if (buffer.getByte(index + j) != key[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[][] toKeys(Set<String> keys) {
+        if (keys == null) {
+            return null;
+        }
+        byte[][] result = new byte[keys.size()][];
+        int i = 0;
+        for (String key : keys) {
+            result[i++] = ('"' + key + '"').getBytes(StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
     private boolean isLastMessage() {
         if (buffer.readableBytes() == DONE_TOKEN.length) {
             int j = 0;
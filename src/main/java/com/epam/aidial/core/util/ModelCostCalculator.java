@@ -17,11 +17,15 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.Scanner;
+import javax.annotation.Nullable;
 
 @Slf4j
 @UtilityClass
 public class ModelCostCalculator {
 
+    /**
+     * Calculates the cost parsing the request and response bodies for the models priced by characters.
+     */
     public static BigDecimal calculate(ProxyContext context) {
         Deployment deployment = context.getDeployment();
         if (!(deployment instanceof Model model)) {
@@ -41,6 +45,34 @@ public class ModelCostCalculator {
         };
     }
 
+    /**
+     * Calculates the cost with the lengths counted while the request and response were processed, so the response body is not parsed.
+     * The captured response body may be truncated, so the completion is never measured from it.
+     *
+     * @param promptLength     - length of the prompt without whitespaces, see {@link #getPromptLength(ModelType, ObjectNode)},
+     *                           or null to count it from the request body.
+     * @param completionLength - length of the completion without whitespaces, see {@link #getCompletionLength(ObjectNode, boolean)}.
+     */
+    public static BigDecimal calculate(ProxyContext context, @Nullable Integer promptLength, int completionLength) {
+        Deployment deployment = context.getDeployment();
+        if (!(deployment instanceof Model model)) {
+            return null;
+        }
+
+        Pricing pricing = model.getPricing();
+        if (pricing == null) {
+            return null;
+        }
+
+        return switch (pricing.getUnit()) {
+            case "token" -> calculate(context.getTokenUsage(), pricing.getPrompt(), pricing.getCompletion());
+            case "char_without_whitespace" -> calculate(
+                    (promptLength == null) ? getRequestContentLength(model.getType(), context.getRequestBody()).length() : promptLength,
+                    model.getType() == ModelType.EMBEDDING ? 0 : completionLength, pricing.getPrompt(), pricing.getCompletion());
+            default -> null;
+        };
+    }
+
     private static BigDecimal calculate(TokenUsage tokenUsage, String promptRate, String completionRate) {
         if (tokenUsage == null) {
             return null;
@@ -63,9 +95,13 @@ public class ModelCostCalculator {
     private static BigDecimal calculate(ModelType modelType, Buffer requestBody, Buffer responseBody, String promptRate, String completionRate) {
         RequestLengthResult requestLengthResult = getRequestContentLength(modelType, requestBody);
         int responseLength = getResponseContentLength(modelType, responseBody, requestLengthResult.stream());
+        return calculate(requestLengthResult.length(), responseLength, promptRate, completionRate);
+    }
+
+    private static BigDecimal calculate(int requestLength, int responseLength, String promptRate, String completionRate) {
         BigDecimal cost = null;
         if (promptRate != null) {
-            cost = new BigDecimal(requestLengthResult.length()).multiply(new BigDecimal(promptRate));
+            cost = new BigDecimal(requestLength).multiply(new BigDecimal(promptRate));
         }
         if (completionRate != null) {
             BigDecimal completionCost = new BigDecimal(responseLength).multiply(new BigDecimal(completionRate));
@@ -78,6 +114,42 @@ public class ModelCostCalculator {
         return cost;
     }
 
+    public static boolean isPricedByChars(Deployment deployment) {
+        return deployment instanceof Model model && model.getPricing() != null && "char_without_whitespace".equals(model.getPricing().getUnit());
+    }
+
+    /**
+     * Counts the length of the prompt without whitespaces in the request.
+     */
+    public static int getPromptLength(ModelType modelType, ObjectNode tree) {
+        int len = 0;
+        if (modelType == ModelType.CHAT) {
+            ArrayNode messages = (ArrayNode) tree.get("messages");
+            for (int i = 0; i < messages.size(); i++) {
+                JsonNode message = messages.get(i);
+                len += getLengthWithoutWhitespace(message.get("content").textValue());
+            }
+        } else {
+            JsonNode input = tree.get("input");
+            if (input instanceof ArrayNode array) {
+                for (int i = 0; i < array.size(); i++) {
+                    len += getLengthWithoutWhitespace(array.get(i).textValue());
+                }
+            } else {
+                len = getLengthWithoutWhitespace(input.textValue());
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Counts the length of the completion without whitespaces in a non-streaming response or in a chunk of a streaming one.
+     */
+    public static int getCompletionLength(ObjectNode tree, boolean isStreaming) {
+        JsonNode content = tree.path("choices").path(0).path(isStreaming ? "delta" : "message").path("content");
+        return getLengthWithoutWhitespace(content.textValue());
+    }
+
     private static int getResponseContentLength(ModelType modelType, Buffer responseBody, boolean isStreamingResponse) {
         if (modelType == ModelType.EMBEDDING) {
             return 0;
@@ -126,28 +198,9 @@ public class ModelCostCalculator {
 
     private static RequestLengthResult getRequestContentLength(ModelType modelType, Buffer requestBody) {
         try (InputStream stream = new ByteBufInputStream(requestBody.getByteBuf())) {
-            int len;
             ObjectNode tree = (ObjectNode) ProxyUtil.MAPPER.readTree(stream);
-            if (modelType == ModelType.CHAT) {
-                ArrayNode messages = (ArrayNode) tree.get("messages");
-                len = 0;
-                for (int i = 0; i < messages.size(); i++) {
-                    JsonNode message = messages.get(i);
-                    len += getLengthWithoutWhitespace(message.get("content").textValue());
-                }
-                return new RequestLengthResult(len, tree.get("stream").asBoolean(false));
-            } else {
-                JsonNode input = tree.get("input");
-                if (input instanceof ArrayNode array) {
-                    len = 0;
-                    for (int i = 0; i < array.size(); i++) {
-                        len += getLengthWithoutWhitespace(array.get(i).textValue());
-                    }
-                } else {
-                    len = getLengthWithoutWhitespace(input.textValue());
-                }
-            }
-            return new RequestLengthResult(len, false);
+            boolean isStreaming = modelType == ModelType.CHAT && tree.path("stream").asBoolean(false);
+            return new RequestLengthResult(getPromptLength(modelType, tree), isStreaming);
         } catch (Throwable e) {
             throw new RuntimeException(e);
         }
@@ -3,7 +3,10 @@ package com.epam.aidial.core.util;
 import com.epam.aidial.core.Proxy;
 import com.epam.aidial.core.data.MetadataBase;
 import com.epam.aidial.core.function.BaseRequestFunction;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -15,15 +18,19 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.vertx.core.MultiMap;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.http.HttpClientResponse;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerRequest;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -71,6 +78,21 @@ public class ProxyUtil {
         }
     }
 
+    /**
+     * Sets the framing of the body streamed from the client request to the proxy request:
+     * the same content length if it's known, chunked if the client request is chunked or empty body otherwise.
+     */
+    public static void copyContentLength(HttpServerRequest from, HttpClientRequest to) {
+        String contentLength = from.getHeader(HttpHeaders.CONTENT_LENGTH);
+        if (contentLength != null) {
+            to.putHeader(HttpHeaders.CONTENT_LENGTH, contentLength);
+        } else if (HttpHeaders.CHUNKED.toString().equalsIgnoreCase(from.getHeader(HttpHeaders.TRANSFER_ENCODING))) {
+            to.setChunked(true);
+        } else {
+            to.putHeader(HttpHeaders.CONTENT_LENGTH, "0");
+        }
+    }
+
     public static int contentLength(HttpServerRequest request, int defaultValue) {
         return contentLength(request.headers(), defaultValue);
     }
@@ -278,6 +300,73 @@ public class ProxyUtil {
         return convertToString(data, false);
     }
 
+    /**
+     * Reads the top-level fields of a JSON object without building the tree of nested values.
+     * Scalars are kept as is, objects and arrays are replaced with empty ones. The whole input is still validated.
+     *
+     * @param deepFields - names of fields at any depth which require the full tree.
+     * @return the shallow tree or null if one of the deep fields is met.
+     */
+    @Nullable
+    public static ObjectNode readShallowTree(InputStream stream, Set<String> deepFields) throws IOException {
+        try (JsonParser parser = MAPPER.createParser(stream)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected JSON object");
+            }
+
+            ObjectNode tree = MAPPER.createObjectNode();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken token = parser.nextToken();
+
+                if (deepFields.contains(name)) {
+                    return null;
+                }
+
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    if (!skipChildren(parser, deepFields)) {
+                        return null;
+                    }
+
+                    tree.set(name, (token == JsonToken.START_OBJECT) ? MAPPER.createObjectNode() : MAPPER.createArrayNode());
+                } else {
+                    tree.set(name, MAPPER.readTree(parser));
+                }
+            }
+
+            if (parser.nextToken() != null) {
+                throw new JsonParseException(parser, "Unexpected content after JSON object");
+            }
+
+            return tree;
+        }
+    }
+
+    /**
+     * Skips the current object or array without decoding its values.
+     *
+     * @return false if one of the deep fields is met.
+     */
+    private static boolean skipChildren(JsonParser parser, Set<String> deepFields) throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                throw new JsonParseException(parser, "Unexpected end of JSON input");
+            }
+
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                depth++;
+            } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                depth--;
+            } else if (token == JsonToken.FIELD_NAME && deepFields.contains(parser.currentName())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     public static <T> Throwable processChain(T item, List<BaseRequestFunction<T>> chain) {
         for (BaseRequestFunction<T> fn : chain) {
             Throwable error = fn.apply(item);
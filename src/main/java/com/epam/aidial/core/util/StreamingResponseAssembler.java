@@ -0,0 +1,93 @@
+package com.epam.aidial.core.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import javax.annotation.Nullable;
+
+/**
+ * Assembles the chunks of a streaming response into a single chat completion as the chunks arrive,
+ * so neither the chunks nor the whole response have to be kept until the end.
+ */
+public class StreamingResponseAssembler {
+
+    private final ChunkMerger usage = new ChunkMerger();
+    private final ChunkMerger statistics = new ChunkMerger();
+    private final ChunkMerger choices = new ChunkMerger();
+    private JsonNode id;
+    private JsonNode created;
+    private JsonNode model;
+    private JsonNode systemFingerprint;
+    private boolean empty = true;
+    private IllegalArgumentException error;
+
+    public void append(ObjectNode chunk) {
+        if (error != null) {
+            return;
+        }
+
+        try {
+            usage.merge(chunk.get("usage"));
+            statistics.merge(chunk.get("statistics"));
+            choices.merge(chunk.get("choices"));
+        } catch (IllegalArgumentException e) {
+            error = e;
+            return;
+        }
+
+        if (chunk.get("system_fingerprint") != null) {
+            systemFingerprint = chunk.get("system_fingerprint");
+        }
+        if (model == null && chunk.get("model") != null) {
+            model = chunk.get("model");
+        }
+        id = chunk.get("id");
+        created = chunk.get("created");
+        empty = false;
+    }
+
+    /**
+     * @return <code>true</code> if no chunk is appended.
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * @return the assembled response or null if no chunk is appended.
+     * @throws IllegalArgumentException if the chunks can't be merged.
+     */
+    @Nullable
+    public ObjectNode assemble() {
+        if (error != null) {
+            throw error;
+        }
+
+        if (empty) {
+            return null;
+        }
+
+        ObjectNode result = ProxyUtil.MAPPER.createObjectNode();
+        result.set("id", id);
+        result.put("object", "chat.completion");
+        result.set("created", created);
+        result.set("model", model);
+
+        JsonNode usage = this.usage.result();
+        if (usage != null) {
+            result.set("usage", usage);
+        }
+        JsonNode statistics = this.statistics.result();
+        if (statistics != null) {
+            result.set("statistics", statistics);
+        }
+        if (systemFingerprint != null) {
+            result.set("system_fingerprint", systemFingerprint);
+        }
+        JsonNode choices = this.choices.result();
+        if (choices != null) {
+            result.set("choices", choices);
+        }
+        return result;
+    }
+}
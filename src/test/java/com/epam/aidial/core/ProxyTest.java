@@ -5,6 +5,7 @@ import com.epam.aidial.core.config.Config;
 import com.epam.aidial.core.config.ConfigStore;
 import com.epam.aidial.core.config.Key;
 import com.epam.aidial.core.config.Route;
+import com.epam.aidial.core.limiter.MemoryBudget;
 import com.epam.aidial.core.limiter.RateLimiter;
 import com.epam.aidial.core.log.LogStore;
 import com.epam.aidial.core.security.AccessTokenValidator;
@@ -39,11 +40,13 @@ import java.util.regex.Pattern;
 import static com.epam.aidial.core.Proxy.FILES_REQUEST_BODY_MAX_SIZE_BYTES;
 import static com.epam.aidial.core.Proxy.HEADER_API_KEY;
 import static com.epam.aidial.core.Proxy.HEALTH_CHECK_PATH;
+import static com.epam.aidial.core.Proxy.REQUEST_BODY_MAX_SIZE_BYTES;
 import static com.epam.aidial.core.util.HttpStatus.BAD_REQUEST;
 import static com.epam.aidial.core.util.HttpStatus.HTTP_VERSION_NOT_SUPPORTED;
 import static com.epam.aidial.core.util.HttpStatus.METHOD_NOT_ALLOWED;
 import static com.epam.aidial.core.util.HttpStatus.OK;
 import static com.epam.aidial.core.util.HttpStatus.REQUEST_ENTITY_TOO_LARGE;
+import static com.epam.aidial.core.util.HttpStatus.SERVICE_UNAVAILABLE;
 import static com.epam.aidial.core.util.HttpStatus.UNAUTHORIZED;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -72,6 +75,8 @@ public class ProxyTest {
     private AccessTokenValidator accessTokenValidator;
     @Mock
     private BlobStorage storage;
+    @Mock
+    private MemoryBudget memoryBudget;
 
     @Mock(answer = Answers.RETURNS_DEEP_STUBS)
     private HttpServerRequest request;
@@ -141,6 +146,28 @@ public class ProxyTest {
         verify(response).setStatusCode(REQUEST_ENTITY_TOO_LARGE.getCode());
     }
 
+    @Test
+    public void testHandle_ChunkedBodyIsAccountedAtMaxSize() {
+        when(request.version()).thenReturn(HttpVersion.HTTP_1_1);
+        when(request.method()).thenReturn(HttpMethod.POST);
+        when(request.path()).thenReturn("/openai/deployments/model1/chat/completions");
+        MultiMap headers = mock(MultiMap.class);
+        when(request.headers()).thenReturn(headers);
+        when(headers.get(eq(HEADER_API_KEY))).thenReturn("key1");
+        when(headers.get(eq(HttpHeaders.CONTENT_LENGTH))).thenReturn(null);
+        when(headers.get(eq(HttpHeaders.TRANSFER_ENCODING))).thenReturn("chunked");
+        ApiKeyData apiKeyData = new ApiKeyData();
+        apiKeyData.setOriginalKey(new Key());
+        when(apiKeyStore.getApiKeyData("key1")).thenReturn(Future.succeededFuture(apiKeyData));
+        when(memoryBudget.tryAcquire(REQUEST_BODY_MAX_SIZE_BYTES)).thenReturn(null);
+        when(memoryBudget.getRetryAfter()).thenReturn(1);
+
+        proxy.handle(request);
+
+        verify(response).setStatusCode(SERVICE_UNAVAILABLE.getCode());
+        verify(response).putHeader(HttpHeaders.RETRY_AFTER, "1");
+    }
+
     @Test
     public void testHandle_HealthCheck() {
         when(request.version()).thenReturn(HttpVersion.HTTP_1_1);
@@ -4,6 +4,7 @@ import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.junit5.VertxExtension;
 import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
@@ -34,6 +35,58 @@ class RouteApiTest extends ResourceBaseTest {
         assertEquals(expectedResponse, resp.body());
     }
 
+    @Test
+    void routeRetryWithTruncatedBody(Vertx vertx, VertxTestContext context) {
+        // the upstream reads the whole body and drops the connection, so the request has to be retried
+        var targetServer = vertx.createHttpServer()
+                .requestHandler(req -> req.body().onSuccess(body -> req.connection().close()));
+        targetServer.listen(9876)
+                .onComplete(context.succeedingThenComplete());
+
+        var resp = send(HttpMethod.POST, "/v1/retry", null, largeBody(), "api-key", "vstore_user_key");
+
+        assertEquals(502, resp.status());
+        assertEquals("Request body is too large to retry", resp.body());
+    }
+
+    @Test
+    void routeConnectionRetryWithLargeBody(Vertx vertx, VertxTestContext context) {
+        // nothing listens on the first upstream, so the connection is retried before any part of the body is read
+        var targetServer = vertx.createHttpServer()
+                .requestHandler(req -> req.body().onSuccess(body -> req.response().end(Integer.toString(body.length()))));
+        targetServer.listen(9877)
+                .onComplete(context.succeedingThenComplete());
+
+        String body = largeBody();
+        // the upstreams are taken in turns, so one of the requests connects to the first upstream
+        for (int i = 0; i < 2; i++) {
+            var resp = send(HttpMethod.POST, "/v1/retry", null, body, "api-key", "vstore_user_key");
+
+            assertEquals(200, resp.status());
+            assertEquals(Integer.toString(body.length()), resp.body());
+        }
+    }
+
+    @Test
+    void routeRateLimitWithTruncatedBody(Vertx vertx, VertxTestContext context) {
+        var targetServer = vertx.createHttpServer()
+                .requestHandler(req -> req.body().onSuccess(body -> req.response().setStatusCode(429).end("Too many requests")));
+        targetServer.listen(9876)
+                .onComplete(context.succeedingThenComplete());
+
+        var resp = send(HttpMethod.POST, "/v1/retry", null, largeBody(), "api-key", "vstore_user_key");
+
+        assertEquals(429, resp.status());
+        assertEquals("Too many requests", resp.body());
+    }
+
+    /**
+     * @return the body over the request capture limit, so a part of it is not kept for retries.
+     */
+    private static String largeBody() {
+        return "a".repeat(2 * 1024 * 1024);
+    }
+
     private static List<Arguments> datasource() {
         return List.of(
                 Arguments.of(HttpMethod.GET, "/v1/plain", "vstore_user_key", 200, "/"),
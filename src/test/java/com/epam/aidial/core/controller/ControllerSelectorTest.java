@@ -2,6 +2,8 @@ package com.epam.aidial.core.controller;
 
 import com.epam.aidial.core.Proxy;
 import com.epam.aidial.core.ProxyContext;
+import com.epam.aidial.core.config.Config;
+import com.epam.aidial.core.config.Route;
 import com.epam.aidial.core.service.ApplicationService;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
@@ -21,6 +23,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -383,9 +386,26 @@ public class ControllerSelectorTest {
     public void testSelectRouteController() {
         when(request.path()).thenReturn("/route/request");
         when(request.method()).thenReturn(HttpMethod.POST);
+        when(context.getConfig()).thenReturn(new Config());
         Controller controller = ControllerSelector.select(proxy, context);
         assertNotNull(controller);
         assertInstanceOf(RouteController.class, controller);
+        verify(context).setStreamedBody(true);
+    }
+
+    @Test
+    public void testSelectRouteControllerWithStaticResponse() {
+        when(request.path()).thenReturn("/route/request");
+        when(request.method()).thenReturn(HttpMethod.POST);
+        Route route = new Route();
+        route.setResponse(new Route.Response());
+        Config config = new Config();
+        config.getRoutes().put("static", route);
+        when(context.getConfig()).thenReturn(config);
+        Controller controller = ControllerSelector.select(proxy, context);
+        assertInstanceOf(RouteController.class, controller);
+        // the static response reads the whole body
+        verify(context).setStreamedBody(false);
     }
 
     @Test
@@ -420,6 +440,7 @@ public class ControllerSelectorTest {
     void testFailDeploymentWithBadPrefix() {
         when(request.path()).thenReturn("/prefix/openai/deployments/deployment");
         when(request.method()).thenReturn(HttpMethod.GET);
+        when(context.getConfig()).thenReturn(new Config());
         Controller controller = ControllerSelector.select(proxy, context);
         assertInstanceOf(RouteController.class, controller);
     }
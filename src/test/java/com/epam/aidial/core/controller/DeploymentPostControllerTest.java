@@ -5,7 +5,10 @@ import com.epam.aidial.core.ProxyContext;
 import com.epam.aidial.core.config.ApiKeyData;
 import com.epam.aidial.core.config.Application;
 import com.epam.aidial.core.config.Config;
+import com.epam.aidial.core.config.HedgingPolicy;
 import com.epam.aidial.core.config.Model;
+import com.epam.aidial.core.config.Upstream;
+import com.epam.aidial.core.config.UpstreamTimeouts;
 import com.epam.aidial.core.limiter.RateLimiter;
 import com.epam.aidial.core.log.LogStore;
 import com.epam.aidial.core.security.ApiKeyStore;
@@ -20,31 +23,44 @@ import com.epam.aidial.core.util.HttpStatus;
 import com.epam.aidial.core.util.ProxyUtil;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
 import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.RequestOptions;
 import io.vertx.core.http.impl.headers.HeadersMultiMap;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.OngoingStubbing;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import static com.epam.aidial.core.Proxy.HEADER_API_KEY;
 import static com.epam.aidial.core.Proxy.HEADER_CONTENT_TYPE_APPLICATION_JSON;
+import static com.epam.aidial.core.Proxy.HEADER_UPSTREAM_ATTEMPTS;
 import static com.epam.aidial.core.util.HttpStatus.BAD_GATEWAY;
 import static com.epam.aidial.core.util.HttpStatus.FORBIDDEN;
+import static com.epam.aidial.core.util.HttpStatus.GATEWAY_TIMEOUT;
 import static com.epam.aidial.core.util.HttpStatus.NOT_FOUND;
 import static com.epam.aidial.core.util.HttpStatus.UNSUPPORTED_MEDIA_TYPE;
 import static io.vertx.core.http.HttpHeaders.AUTHORIZATION;
@@ -58,6 +74,7 @@ import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -87,6 +104,13 @@ public class DeploymentPostControllerTest {
     @Mock
     private Vertx vertx;
 
+    @Mock
+    private LongSupplier clock;
+    /**
+     * Current time in millis returned by the clock if the test drives the time.
+     */
+    private final AtomicLong now = new AtomicLong();
+
     @InjectMocks
     private DeploymentPostController controller;
 
@@ -219,9 +243,13 @@ public class DeploymentPostControllerTest {
 
         Buffer requestBody = Buffer.buffer();
         when(context.getRequestBody()).thenReturn(requestBody);
+        UpstreamRoute upstreamRoute = mock(UpstreamRoute.class);
+        when(context.getUpstreamRoute()).thenReturn(upstreamRoute);
 
         controller.handleProxyRequest(proxyRequest);
 
+        verify(upstreamRoute).start();
+
         assertNull(proxyHeaders.get(AUTHORIZATION));
         assertEquals("key1", proxyHeaders.get(HEADER_API_KEY));
     }
@@ -322,9 +350,13 @@ public class DeploymentPostControllerTest {
         ApiKeyData proxyApiKeyData = new ApiKeyData();
         proxyApiKeyData.setPerRequestKey("key1");
         when(context.getProxyApiKeyData()).thenReturn(proxyApiKeyData);
+        UpstreamRoute upstreamRoute = mock(UpstreamRoute.class);
+        when(context.getUpstreamRoute()).thenReturn(upstreamRoute);
 
         controller.handleProxyRequest(proxyRequest);
 
+        verify(upstreamRoute).start();
+
         assertEquals("key1", proxyHeaders.get(HEADER_API_KEY));
         assertEquals("token", proxyHeaders.get(AUTHORIZATION));
 
@@ -332,6 +364,55 @@ public class DeploymentPostControllerTest {
 
     @Test
     public void testHandleResponse_Model() {
+        HttpServerResponse response = mockModelResponse(Future.succeededFuture(), new ApiKeyData());
+        BufferingReadStream bufferingReadStream = mock(BufferingReadStream.class);
+
+        controller.handleResponse(bufferingReadStream);
+
+        verify(rateLimiter).increase(eq(context));
+        verify(context).setTokenUsage(any(TokenUsage.class));
+        verify(logStore).save(eq(context));
+        verify(tokenStatsTracker).endSpan(eq(context));
+        verify(bufferingReadStream).end(response);
+    }
+
+    @Test
+    public void testHandleResponse_ClientResponseEndsBeforeAccounting() {
+        Promise<TokenUsage> stats = Promise.promise();
+        HttpServerResponse response = mockModelResponse(stats.future(), new ApiKeyData());
+        BufferingReadStream bufferingReadStream = mock(BufferingReadStream.class);
+
+        controller.handleResponse(bufferingReadStream);
+
+        verify(bufferingReadStream).end(response);
+        verify(logStore, never()).save(eq(context));
+        verify(tokenStatsTracker, never()).endSpan(eq(context));
+
+        stats.complete(new TokenUsage());
+
+        verify(logStore).save(eq(context));
+        verify(tokenStatsTracker).endSpan(eq(context));
+    }
+
+    @Test
+    public void testHandleResponse_NestedResponseEndsAfterAccounting() {
+        Promise<TokenUsage> stats = Promise.promise();
+        ApiKeyData apiKeyData = new ApiKeyData();
+        apiKeyData.setPerRequestKey("key1");
+        HttpServerResponse response = mockModelResponse(stats.future(), apiKeyData);
+        BufferingReadStream bufferingReadStream = mock(BufferingReadStream.class);
+
+        controller.handleResponse(bufferingReadStream);
+
+        verify(bufferingReadStream, never()).end(response);
+
+        stats.complete(new TokenUsage());
+
+        verify(bufferingReadStream).end(response);
+        verify(logStore).save(eq(context));
+    }
+
+    private HttpServerResponse mockModelResponse(Future<TokenUsage> stats, ApiKeyData apiKeyData) {
         when(context.getResponseStream()).thenReturn(mock(BufferingReadStream.class, RETURNS_DEEP_STUBS));
         Model model = new Model();
         when(context.getDeployment()).thenReturn(model);
@@ -345,16 +426,9 @@ public class DeploymentPostControllerTest {
         when(context.getResponseBody()).thenReturn(Buffer.buffer());
         when(proxy.getTokenStatsTracker()).thenReturn(tokenStatsTracker);
         when(rateLimiter.increase(any(ProxyContext.class))).thenReturn(Future.succeededFuture());
-        when(tokenStatsTracker.updateModelStats(context)).thenReturn(Future.succeededFuture());
-        BufferingReadStream bufferingReadStream = mock(BufferingReadStream.class);
-
-        controller.handleResponse(bufferingReadStream);
-
-        verify(rateLimiter).increase(eq(context));
-        verify(context).setTokenUsage(any(TokenUsage.class));
-        verify(logStore).save(eq(context));
-        verify(tokenStatsTracker).endSpan(eq(context));
-        verify(bufferingReadStream).end(response);
+        when(tokenStatsTracker.updateModelStats(context)).thenReturn(stats);
+        when(context.getApiKeyData()).thenReturn(apiKeyData);
+        return response;
     }
 
     @Test
@@ -372,6 +446,7 @@ public class DeploymentPostControllerTest {
         when(context.getResponseBody()).thenReturn(Buffer.buffer());
         when(proxy.getTokenStatsTracker()).thenReturn(tokenStatsTracker);
         when(tokenStatsTracker.getTokenStats(eq(context))).thenReturn(Future.succeededFuture(new TokenUsage()));
+        when(context.getApiKeyData()).thenReturn(new ApiKeyData());
         BufferingReadStream bufferingReadStream = mock(BufferingReadStream.class);
 
         controller.handleResponse(bufferingReadStream);
@@ -414,4 +489,326 @@ public class DeploymentPostControllerTest {
         verify(tokenStatsTracker).startSpan(eq(context));
     }
 
+    @Test
+    public void testHedging_HedgeResponds() {
+        UpstreamRoute route = mock(UpstreamRoute.class);
+        HttpClientRequest proxyRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        Promise<HttpClientResponse> response = Promise.promise();
+        when(proxyRequest.send(any(Buffer.class))).thenReturn(response.future());
+        UpstreamRoute hedgeRoute = mock(UpstreamRoute.class);
+        HttpClientRequest hedgeRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        Promise<HttpClientResponse> hedgeResponse = Promise.promise();
+        when(hedgeRequest.send(any(Buffer.class))).thenReturn(hedgeResponse.future());
+        sendHedgedRequest(route, proxyRequest, hedgeRoute, hedgeRequest);
+        mockClientResponse();
+
+        hedgeResponse.complete(mockProxyResponse(200));
+
+        verify(hedgeRoute).succeed();
+        verify(route).cancel();
+        verify(proxyRequest).reset();
+        verify(hedgeRequest, never()).reset();
+    }
+
+    @Test
+    public void testHedging_PrimaryRespondsAfterHedgeConnects() {
+        when(clock.getAsLong()).thenReturn(10L, 20L, 30L);
+        UpstreamRoute route = mock(UpstreamRoute.class);
+        HttpClientRequest proxyRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        Promise<HttpClientResponse> response = Promise.promise();
+        when(proxyRequest.send(any(Buffer.class))).thenReturn(response.future());
+        UpstreamRoute hedgeRoute = mock(UpstreamRoute.class);
+        HttpClientRequest hedgeRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        when(hedgeRequest.send(any(Buffer.class))).thenReturn(Promise.<HttpClientResponse>promise().future());
+        sendHedgedRequest(route, proxyRequest, hedgeRoute, hedgeRequest);
+        mockClientResponse();
+
+        HttpClientResponse proxyResponse = mockProxyResponse(200);
+        when(proxyResponse.request()).thenReturn(proxyRequest);
+        response.complete(proxyResponse);
+
+        verify(route).succeed();
+        verify(hedgeRoute).cancel();
+        verify(hedgeRequest).reset();
+        verify(context).setProxyResponseTimestamp(30L);
+        // the timestamp of the hedged request is replaced with the one of the primary request which responded
+        ArgumentCaptor<Long> connectTimestamps = ArgumentCaptor.forClass(Long.class);
+        verify(context, times(3)).setProxyConnectTimestamp(connectTimestamps.capture());
+        assertEquals(List.of(10L, 20L, 10L), connectTimestamps.getAllValues());
+    }
+
+    @Test
+    public void testHedging_PrimaryFailsWhileHedgeIsPending() {
+        UpstreamRoute route = mock(UpstreamRoute.class);
+        HttpClientRequest proxyRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        Promise<HttpClientResponse> response = Promise.promise();
+        when(proxyRequest.send(any(Buffer.class))).thenReturn(response.future());
+        UpstreamRoute hedgeRoute = mock(UpstreamRoute.class);
+        HttpClientRequest hedgeRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        when(hedgeRequest.send(any(Buffer.class))).thenReturn(Promise.<HttpClientResponse>promise().future());
+        HttpClient client = sendHedgedRequest(route, proxyRequest, hedgeRoute, hedgeRequest);
+
+        response.fail(new IOException("Connection reset"));
+
+        verify(route).fail(BAD_GATEWAY);
+        verify(route, never()).next();
+        verify(client).request(any(RequestOptions.class));
+        verify(context, never()).respond(any(HttpStatus.class), anyString());
+    }
+
+    @Test
+    public void testHedging_BothFail() {
+        UpstreamRoute route = mock(UpstreamRoute.class);
+        HttpClientRequest proxyRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        Promise<HttpClientResponse> response = Promise.promise();
+        when(proxyRequest.send(any(Buffer.class))).thenReturn(response.future());
+        UpstreamRoute hedgeRoute = mock(UpstreamRoute.class);
+        HttpClientRequest hedgeRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        Promise<HttpClientResponse> hedgeResponse = Promise.promise();
+        when(hedgeRequest.send(any(Buffer.class))).thenReturn(hedgeResponse.future());
+        HttpClientRequest retryRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        when(retryRequest.send(any(Buffer.class))).thenReturn(Promise.<HttpClientResponse>promise().future());
+        HttpClient client = sendHedgedRequest(route, proxyRequest, hedgeRoute, hedgeRequest, retryRequest);
+
+        response.fail(new IOException("Connection reset"));
+        hedgeResponse.fail(new IOException("Connection reset"));
+
+        verify(route).fail(BAD_GATEWAY);
+        verify(hedgeRoute).fail(BAD_GATEWAY);
+        verify(route, never()).next();
+        verify(hedgeRoute).next();
+        verify(client, times(2)).request(any(RequestOptions.class));
+        verify(retryRequest).send(any(Buffer.class));
+    }
+
+    @Test
+    public void testHedging_LateResponseIsDropped() {
+        UpstreamRoute route = mock(UpstreamRoute.class);
+        HttpClientRequest proxyRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        Promise<HttpClientResponse> response = Promise.promise();
+        when(proxyRequest.send(any(Buffer.class))).thenReturn(response.future());
+        UpstreamRoute hedgeRoute = mock(UpstreamRoute.class);
+        HttpClientRequest hedgeRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        Promise<HttpClientResponse> hedgeResponse = Promise.promise();
+        when(hedgeRequest.send(any(Buffer.class))).thenReturn(hedgeResponse.future());
+        sendHedgedRequest(route, proxyRequest, hedgeRoute, hedgeRequest);
+        mockClientResponse();
+        hedgeResponse.complete(mockProxyResponse(200));
+
+        HttpClientResponse lateResponse = mock(HttpClientResponse.class);
+        when(lateResponse.request()).thenReturn(proxyRequest);
+        response.complete(lateResponse);
+
+        verify(proxyRequest, times(2)).reset();
+        verify(route, never()).succeed();
+        verify(route, never()).release();
+        verify(context, never()).setProxyResponse(lateResponse);
+        verify(context, never()).setTokenUsage(any(TokenUsage.class));
+        verify(rateLimiter, never()).increase(any(ProxyContext.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTimeout_FirstByte() {
+        UpstreamRoute route = mock(UpstreamRoute.class);
+        Model model = mockModelRequest(route);
+        UpstreamTimeouts timeouts = new UpstreamTimeouts();
+        timeouts.setFirstByte(100);
+        model.setTimeouts(timeouts);
+        HttpClientRequest proxyRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        Promise<HttpClientResponse> response = Promise.promise();
+        when(proxyRequest.send(any(Buffer.class))).thenReturn(response.future());
+        when(proxyRequest.reset(eq(0L), any(TimeoutException.class))).thenAnswer(invocation -> response.tryFail(invocation.getArgument(1, Throwable.class)));
+        HttpClientRequest retryRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        mockRetry(route, retryRequest);
+        when(proxy.getVertx()).thenReturn(vertx);
+        ArgumentCaptor<Handler<Long>> timer = ArgumentCaptor.forClass(Handler.class);
+        when(vertx.setTimer(eq(100L), timer.capture())).thenReturn(1L);
+
+        controller.handleProxyRequest(proxyRequest);
+        timer.getValue().handle(1L);
+
+        verify(vertx).cancelTimer(1L);
+        verify(route).fail(BAD_GATEWAY);
+        verify(route).next();
+        verify(retryRequest).send(any(Buffer.class));
+    }
+
+    @Test
+    public void testTimeout_ChunkBeforeResponseBody() {
+        UpstreamRoute route = mock(UpstreamRoute.class);
+        HttpClientRequest proxyRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        HttpClientResponse proxyResponse = mockProxyResponse(200);
+        proxyResponse.headers().add("X-Origin", "origin");
+        HttpServerResponse response = mockClientResponse();
+        response.headers().add(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        when(response.putHeader(eq(HEADER_UPSTREAM_ATTEMPTS), anyString())).thenAnswer(invocation -> {
+            response.headers().add(HEADER_UPSTREAM_ATTEMPTS, invocation.getArgument(1, String.class));
+            return response;
+        });
+        HttpClientRequest retryRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        mockRetry(route, retryRequest);
+        Handler<Long> timer = receiveResponseWithChunkTimeout(route, proxyRequest, proxyResponse);
+        assertEquals("origin", response.headers().get("X-Origin"));
+        assertEquals("0", response.headers().get(HEADER_UPSTREAM_ATTEMPTS));
+
+        now.addAndGet(1);
+        timer.handle(2L);
+
+        verify(route).fail(GATEWAY_TIMEOUT);
+        verify(route).next();
+        verify(retryRequest).send(any(Buffer.class));
+        verify(response, never()).reset();
+        assertEquals("*", response.headers().get(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertNull(response.headers().get("X-Origin"));
+        assertNull(response.headers().get(HEADER_UPSTREAM_ATTEMPTS));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTimeout_ChunkAfterResponseBody() {
+        UpstreamRoute route = mock(UpstreamRoute.class);
+        HttpClientRequest proxyRequest = mock(HttpClientRequest.class, RETURNS_DEEP_STUBS);
+        HttpClientResponse proxyResponse = mockProxyResponse(200);
+        ArgumentCaptor<Handler<Buffer>> chunks = ArgumentCaptor.forClass(Handler.class);
+        when(proxyResponse.handler(chunks.capture())).thenReturn(proxyResponse);
+        HttpServerResponse response = mockClientResponse();
+        when(proxy.getTokenStatsTracker()).thenReturn(tokenStatsTracker);
+        when(proxy.getApiKeyStore()).thenReturn(apiKeyStore);
+        when(apiKeyStore.invalidatePerRequestApiKey(any(ApiKeyData.class))).thenReturn(Future.succeededFuture(true));
+        Handler<Long> timer = receiveResponseWithChunkTimeout(route, proxyRequest, proxyResponse);
+
+        now.addAndGet(1);
+        chunks.getValue().handle(Buffer.buffer("data:"));
+        // the chunk has just been received, so the timer is rescheduled
+        timer.handle(2L);
+        verify(vertx, times(2)).setTimer(eq(1L), any());
+        verify(route, never()).fail(any(HttpStatus.class));
+
+        now.addAndGet(1);
+        timer.handle(2L);
+
+        verify(route).fail(GATEWAY_TIMEOUT);
+        verify(route, never()).next();
+        verify(proxyRequest).reset();
+        verify(response).reset();
+        verify(tokenStatsTracker).endSpan(eq(context));
+    }
+
+    /**
+     * Receives the response headers of the model with the chunk timeout of 1 ms. The time is driven by {@link #now}.
+     *
+     * @return the handler of the chunk timer which resets the request to the origin on timeout.
+     */
+    @SuppressWarnings("unchecked")
+    private Handler<Long> receiveResponseWithChunkTimeout(UpstreamRoute route, HttpClientRequest proxyRequest,
+                                                          HttpClientResponse proxyResponse) {
+        Model model = mockModelRequest(route);
+        UpstreamTimeouts timeouts = new UpstreamTimeouts();
+        timeouts.setChunk(1);
+        model.setTimeouts(timeouts);
+        Promise<HttpClientResponse> response = Promise.promise();
+        when(proxyRequest.send(any(Buffer.class))).thenReturn(response.future());
+        when(context.getProxyRequest()).thenReturn(proxyRequest);
+        when(context.getResponseStream()).thenCallRealMethod();
+        doCallRealMethod().when(context).setResponseStream(any());
+        ArgumentCaptor<Handler<Throwable>> responseError = ArgumentCaptor.forClass(Handler.class);
+        when(proxyResponse.exceptionHandler(responseError.capture())).thenReturn(proxyResponse);
+        when(proxyRequest.reset(eq(0L), any(TimeoutException.class))).thenAnswer(invocation -> {
+            responseError.getValue().handle(invocation.getArgument(1, Throwable.class));
+            return true;
+        });
+        when(proxy.getVertx()).thenReturn(vertx);
+        when(clock.getAsLong()).thenAnswer(invocation -> now.get());
+        ArgumentCaptor<Handler<Long>> timer = ArgumentCaptor.forClass(Handler.class);
+        when(vertx.setTimer(eq(1L), timer.capture())).thenReturn(2L);
+
+        controller.handleProxyRequest(proxyRequest);
+        response.complete(proxyResponse);
+        verify(route).succeed();
+
+        return timer.getValue();
+    }
+
+    /**
+     * Sends the request to the model with the hedging policy and fires the timer of the hedged request.
+     *
+     * @param hedgeRequests the requests to the origin returned by the client: the hedged request and the retries.
+     */
+    @SuppressWarnings("unchecked")
+    private HttpClient sendHedgedRequest(UpstreamRoute route, HttpClientRequest proxyRequest,
+                                         UpstreamRoute hedgeRoute, HttpClientRequest... hedgeRequests) {
+        Model model = mockModelRequest(route);
+        model.setHedgingPolicy(new HedgingPolicy());
+        when(request.method()).thenReturn(HttpMethod.POST);
+        when(route.latencyPercentile(95)).thenReturn(50L);
+        when(route.hedge()).thenReturn(hedgeRoute);
+        when(hedgeRoute.available()).thenReturn(true);
+        when(hedgeRoute.get()).thenReturn(model.getUpstreams().get(1));
+
+        HttpClient client = mock(HttpClient.class);
+        when(proxy.getClient()).thenReturn(client);
+        OngoingStubbing<Future<HttpClientRequest>> requests = when(client.request(any(RequestOptions.class)));
+        for (HttpClientRequest hedgeRequest : hedgeRequests) {
+            requests = requests.thenReturn(Future.succeededFuture(hedgeRequest));
+        }
+
+        when(proxy.getVertx()).thenReturn(vertx);
+        ArgumentCaptor<Handler<Long>> timer = ArgumentCaptor.forClass(Handler.class);
+        when(vertx.setTimer(eq(50L), timer.capture())).thenReturn(1L);
+
+        controller.handleProxyRequest(proxyRequest);
+        verify(route).start();
+
+        timer.getValue().handle(1L);
+        verify(hedgeRoute).start();
+        return client;
+    }
+
+    /**
+     * Lets the route retry the request with the next upstream, the retry is sent with the given request.
+     */
+    private void mockRetry(UpstreamRoute route, HttpClientRequest retryRequest) {
+        when(request.method()).thenReturn(HttpMethod.POST);
+        when(route.available()).thenReturn(true);
+        HttpClient client = mock(HttpClient.class);
+        when(proxy.getClient()).thenReturn(client);
+        when(client.request(any(RequestOptions.class))).thenReturn(Future.succeededFuture(retryRequest));
+    }
+
+    /**
+     * @return the model with two upstreams the request is proxied to by the route.
+     */
+    private Model mockModelRequest(UpstreamRoute route) {
+        Model model = new Model();
+        model.setName("model1");
+        model.setEndpoint("http://host/model");
+        model.setUpstreams(List.of(new Upstream("http://upstream1", "key1", null, 1, 0),
+                new Upstream("http://upstream2", "key2", null, 1, 0)));
+        when(context.getDeployment()).thenReturn(model);
+        when(context.getRequest()).thenReturn(request);
+        when(request.headers()).thenReturn(new HeadersMultiMap());
+        when(context.getRequestBody()).thenReturn(Buffer.buffer("{}"));
+        ApiKeyData proxyApiKeyData = new ApiKeyData();
+        proxyApiKeyData.setPerRequestKey("key1");
+        when(context.getProxyApiKeyData()).thenReturn(proxyApiKeyData);
+        when(context.getUpstreamRoute()).thenReturn(route);
+        when(route.get()).thenReturn(model.getUpstreams().get(0));
+        return model;
+    }
+
+    private HttpClientResponse mockProxyResponse(int status) {
+        HttpClientResponse proxyResponse = mock(HttpClientResponse.class);
+        when(proxyResponse.statusCode()).thenReturn(status);
+        when(proxyResponse.headers()).thenReturn(new HeadersMultiMap());
+        return proxyResponse;
+    }
+
+    private HttpServerResponse mockClientResponse() {
+        when(context.getConfig()).thenReturn(new Config());
+        HttpServerResponse response = mock(HttpServerResponse.class);
+        when(context.getResponse()).thenReturn(response);
+        when(response.headers()).thenReturn(new HeadersMultiMap());
+        return response;
+    }
 }
@@ -0,0 +1,49 @@
+package com.epam.aidial.core.function;
+
+import com.epam.aidial.core.Proxy;
+import com.epam.aidial.core.ProxyContext;
+import com.epam.aidial.core.token.TokenUsage;
+import com.epam.aidial.core.util.ProxyUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@ExtendWith(MockitoExtension.class)
+public class CollectResponseUsageFnTest {
+
+    @Mock
+    private Proxy proxy;
+
+    @Mock
+    private ProxyContext context;
+
+    @InjectMocks
+    private CollectResponseUsageFn fn;
+
+    @Test
+    public void testNoUsage() throws JsonProcessingException {
+        fn.apply((ObjectNode) ProxyUtil.MAPPER.readTree("{\"choices\": [{\"delta\": {\"content\": \"hi\"}}]}"));
+        assertNull(fn.getTokenUsage());
+    }
+
+    @Test
+    public void testLastUsageWins() throws JsonProcessingException {
+        fn.apply((ObjectNode) ProxyUtil.MAPPER.readTree("{\"usage\": {\"completion_tokens\": 1, \"prompt_tokens\": 2, \"total_tokens\": 3}}"));
+        fn.apply((ObjectNode) ProxyUtil.MAPPER.readTree("{\"choices\": []}"));
+        fn.apply((ObjectNode) ProxyUtil.MAPPER.readTree("{\"usage\": {\"completion_tokens\": 10, \"prompt_tokens\": 20, \"total_tokens\": 30}}"));
+
+        TokenUsage usage = fn.getTokenUsage();
+        assertNotNull(usage);
+        assertEquals(10, usage.getCompletionTokens());
+        assertEquals(20, usage.getPromptTokens());
+        assertEquals(30, usage.getTotalTokens());
+    }
+}
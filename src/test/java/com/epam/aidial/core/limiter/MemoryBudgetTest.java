@@ -0,0 +1,50 @@
+package com.epam.aidial.core.limiter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void testRequestIsRejectedOverLimit() {
+        MemoryBudget budget = new MemoryBudget(100, 1);
+        MemoryBudget.Lease first = budget.tryAcquire(60);
+        assertNotNull(first);
+        assertNull(budget.tryAcquire(50));
+
+        MemoryBudget.Lease second = budget.tryAcquire(40);
+        assertNotNull(second);
+        assertEquals(100, budget.getUsed());
+
+        first.release();
+        assertEquals(40, budget.getUsed());
+        assertNotNull(budget.tryAcquire(50));
+    }
+
+    @Test
+    public void testRequestOverLimitIsAdmittedIfNothingInFlight() {
+        MemoryBudget budget = new MemoryBudget(100, 1);
+        MemoryBudget.Lease lease = budget.tryAcquire(500);
+        assertNotNull(lease);
+        assertNull(budget.tryAcquire(1));
+        lease.release();
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void testLeaseIsReleasedOnce() {
+        MemoryBudget budget = new MemoryBudget(0, 1);
+        MemoryBudget.Lease lease = budget.tryAcquire(10);
+        assertNotNull(lease);
+        lease.acquire(20);
+        assertEquals(30, budget.getUsed());
+
+        lease.release();
+        lease.release();
+        lease.acquire(20);
+        assertEquals(0, budget.getUsed());
+    }
+}
@@ -0,0 +1,141 @@
+package com.epam.aidial.core.limiter;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+class RateLimitStoreTest {
+
+    private static final String PATH = "limits/bucket/model/tokens";
+
+    private static RedisServer redisServer;
+
+    private static RedissonClient redissonClient;
+
+    private RateLimitStore store;
+
+    private RateWindow window;
+
+    @BeforeAll
+    static void beforeAll() throws IOException {
+        redisServer = RedisServer.newRedisServer()
+                .port(16370)
+                .bind("127.0.0.1")
+                .setting("maxmemory 16M")
+                .setting("maxmemory-policy volatile-lfu")
+                .build();
+        redisServer.start();
+
+        Config config = new Config();
+        config.useSingleServer().setAddress("redis://localhost:16370");
+        redissonClient = Redisson.create(config);
+    }
+
+    @AfterAll
+    static void afterAll() throws IOException {
+        if (redissonClient != null) {
+            redissonClient.shutdown();
+        }
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    @BeforeEach
+    void beforeEach() {
+        redissonClient.getKeys().flushall();
+        store = new RateLimitStore(redissonClient, null);
+    }
+
+    @Test
+    void testMinuteBucket() {
+        window = RateWindow.MINUTE;
+
+        update(0, 0);
+        add(0, 10, 10);
+        add(0, 20, 30);
+        update(0, 30);
+
+        add(1, 30, 60);
+        add(59, 40, 100);
+        update(59, 100);
+
+        add(60, 10, 80);
+        update(60, 80);
+
+        add(61, 5, 55);
+        update(61, 55);
+
+        update(121, 0);
+    }
+
+    @Test
+    void testDayBucket() {
+        window = RateWindow.DAY;
+
+        update(0, 0);
+        add(0, 10, 10);
+        add(0, 20, 30);
+        update(0, 30);
+
+        add(1, 30, 60);
+        add(23, 40, 100);
+        update(23, 100);
+
+        add(24, 10, 80);
+        update(24, 80);
+
+        add(25, 5, 55);
+        update(25, 55);
+
+        update(49, 0);
+    }
+
+    @Test
+    void testCheck() {
+        RateWindow[] windows = {RateWindow.HOUR, RateWindow.DAY};
+        long[] limits = {2, 10};
+        long timestamp = RateWindow.DAY.window();
+
+        RateLimitStore.RateUsage usage = store.check(PATH, timestamp, 1, windows, limits);
+        Assertions.assertTrue(usage.accepted());
+        Assertions.assertArrayEquals(new long[] {1, 1}, usage.totals());
+
+        usage = store.check(PATH, timestamp, 1, windows, limits);
+        Assertions.assertTrue(usage.accepted());
+        Assertions.assertArrayEquals(new long[] {2, 2}, usage.totals());
+
+        usage = store.check(PATH, timestamp, 1, windows, limits);
+        Assertions.assertFalse(usage.accepted());
+        Assertions.assertArrayEquals(new long[] {2, 2}, usage.totals());
+
+        Assertions.assertArrayEquals(new long[] {0, 2}, store.update(PATH, timestamp + RateWindow.HOUR.window(), windows));
+    }
+
+    private void add(long interval, long count, long expected) {
+        long whole = interval * window.interval();
+        long fraction = ThreadLocalRandom.current().nextLong(0, window.interval());
+
+        long timestamp = window.window() + whole + fraction;
+        long actual = store.add(PATH, timestamp, count, window)[0];
+        Assertions.assertEquals(expected, actual);
+    }
+
+    private void update(long interval, long expected) {
+        long whole = interval * window.interval();
+        long fraction = ThreadLocalRandom.current().nextLong(0, window.interval());
+
+        long timestamp = window.window() + whole + fraction;
+        long actual = store.update(PATH, timestamp, window)[0];
+        Assertions.assertEquals(expected, actual);
+    }
+}
@@ -9,15 +9,11 @@ import com.epam.aidial.core.config.Model;
 import com.epam.aidial.core.config.Role;
 import com.epam.aidial.core.data.LimitStats;
 import com.epam.aidial.core.security.ExtractedClaims;
-import com.epam.aidial.core.service.LockService;
-import com.epam.aidial.core.service.ResourceService;
-import com.epam.aidial.core.storage.BlobStorage;
 import com.epam.aidial.core.token.TokenUsage;
 import com.epam.aidial.core.util.HttpStatus;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpServerRequest;
-import io.vertx.core.json.JsonObject;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -53,9 +49,6 @@ public class RateLimiterTest {
     @Mock
     private Vertx vertx;
 
-    @Mock
-    private BlobStorage blobStorage;
-
     @Mock
     private HttpServerRequest request;
 
@@ -98,19 +91,7 @@ public class RateLimiterTest {
         for (String key : keys.getKeys()) {
             keys.delete(key);
         }
-        LockService lockService = new LockService(redissonClient, null);
-        String resourceConfig = """
-                  {
-                    "maxSize" : 1048576,
-                    "syncPeriod": 60000,
-                    "syncDelay": 120000,
-                    "syncBatch": 4096,
-                    "cacheExpiration": 300000,
-                    "compressionMinSize": 256
-                  }
-                """;
-        ResourceService resourceService = new ResourceService(vertx, redissonClient, blobStorage, lockService, new JsonObject(resourceConfig), null);
-        rateLimiter = new RateLimiter(vertx, resourceService);
+        rateLimiter = new RateLimiter(vertx, new RateLimitStore(redissonClient, null));
     }
 
     @Test
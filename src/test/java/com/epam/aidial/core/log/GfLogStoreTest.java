@@ -1,12 +1,21 @@
 package com.epam.aidial.core.log;
 
+import com.epam.aidial.core.config.Logging;
+import com.epam.deltix.gflog.api.LogEntry;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyChar;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 @SuppressWarnings("checkstyle:LineLength")
 public class GfLogStoreTest {
@@ -192,4 +201,148 @@ public class GfLogStoreTest {
 
 
     }
+
+    @Test
+    public void testTruncate() {
+        assertNull(GfLogStore.truncate(null, 10));
+        assertEquals("abc", GfLogStore.truncate("abc", 3));
+        assertEquals("ab", GfLogStore.truncate("abc", 2));
+        // 2 bytes per char
+        assertEquals("\u0436\u0436", GfLogStore.truncate("\u0436\u0436\u0436", 5));
+        // 3 bytes per char
+        assertEquals("a\u20AC", GfLogStore.truncate("a\u20AC\u20AC", 6));
+        // surrogate pair takes 4 bytes and is never split
+        assertEquals("a", GfLogStore.truncate("a\uD83D\uDE00b", 4));
+        assertEquals("a\uD83D\uDE00", GfLogStore.truncate("a\uD83D\uDE00b", 5));
+    }
+
+    @Test
+    public void testAppendMultiByteCharacters() {
+        assertEquals("a\\\"b\\n", append(bytes("a\"b\n"), Integer.MAX_VALUE));
+        // 2 bytes
+        assertEquals("\u0436", append(bytes("\u0436"), Integer.MAX_VALUE));
+        // 3 bytes
+        assertEquals("\u20AC", append(bytes("\u20AC"), Integer.MAX_VALUE));
+        // 4 bytes
+        assertEquals("\uD83D\uDE00", append(bytes("\uD83D\uDE00"), Integer.MAX_VALUE));
+        assertEquals("a\u0436\u20AC\uD83D\uDE00b", append(bytes("a\u0436\u20AC\uD83D\uDE00b"), Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testAppendMalformedSequences() {
+        // unexpected continuation byte
+        assertEquals("\uFFFDa", append(bytes(0x80, 'a'), Integer.MAX_VALUE));
+        // overlong forms
+        assertEquals("\uFFFD\uFFFD", append(bytes(0xC0, 0xAF), Integer.MAX_VALUE));
+        assertEquals("\uFFFD\uFFFD", append(bytes(0xC1, 0xBF), Integer.MAX_VALUE));
+        assertEquals("\uFFFD\uFFFD\uFFFD", append(bytes(0xE0, 0x80, 0xAF), Integer.MAX_VALUE));
+        assertEquals("\uFFFD\uFFFD\uFFFD\uFFFD", append(bytes(0xF0, 0x8F, 0xBF, 0xBF), Integer.MAX_VALUE));
+        // encoded surrogates
+        assertEquals("\uFFFD\uFFFD\uFFFD", append(bytes(0xED, 0xA0, 0x80), Integer.MAX_VALUE));
+        assertEquals("\uFFFD\uFFFD\uFFFD", append(bytes(0xED, 0xBF, 0xBF), Integer.MAX_VALUE));
+        assertEquals("\uD7FF", append(bytes(0xED, 0x9F, 0xBF), Integer.MAX_VALUE));
+        // code points above U+10FFFF
+        assertEquals("\uFFFD\uFFFD\uFFFD\uFFFD", append(bytes(0xF4, 0x90, 0x80, 0x80), Integer.MAX_VALUE));
+        assertEquals("\uFFFD\uFFFD\uFFFD\uFFFD", append(bytes(0xF5, 0x80, 0x80, 0x80), Integer.MAX_VALUE));
+        assertEquals("\uDBFF\uDFFF", append(bytes(0xF4, 0x8F, 0xBF, 0xBF), Integer.MAX_VALUE));
+        // a sequence interrupted by another character is replaced as a whole
+        assertEquals("\uFFFDa", append(bytes(0xE2, 0x82, 'a'), Integer.MAX_VALUE));
+        assertEquals("\uFFFD\u0436", append(bytes(0xF0, 0x9F, 0xD0, 0xB6), Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testAppendTruncatedSequences() {
+        assertEquals("a\uFFFD", append(bytes('a', 0xC3), Integer.MAX_VALUE));
+        assertEquals("a\uFFFD", append(bytes('a', 0xE2, 0x82), Integer.MAX_VALUE));
+        assertEquals("a\uFFFD", append(bytes('a', 0xF0, 0x9F, 0x98), Integer.MAX_VALUE));
+        // the limit beyond the end of the buffer doesn't hide the truncated sequence
+        assertEquals("a\uFFFD", append(bytes('a', 0xF0, 0x9F, 0x98), 4));
+    }
+
+    @Test
+    public void testAppendLimit() {
+        byte[] bytes = bytes("a\u0436\u20AC\uD83D\uDE00");
+        assertEquals("", append(bytes, 0));
+        assertEquals("a", append(bytes, 1));
+        // the cut exactly at the end of a character
+        assertEquals("a\u0436", append(bytes, 3));
+        assertEquals("a\u0436\u20AC", append(bytes, 6));
+        assertEquals("a\u0436\u20AC\uD83D\uDE00", append(bytes, 10));
+        // the cut inside a character drops the whole character
+        assertEquals("a", append(bytes, 2));
+        assertEquals("a\u0436", append(bytes, 4));
+        assertEquals("a\u0436", append(bytes, 5));
+        assertEquals("a\u0436\u20AC", append(bytes, 7));
+        assertEquals("a\u0436\u20AC", append(bytes, 9));
+        // the cut doesn't turn a valid character into a malformed one
+        assertEquals("\uFFFD", append(bytes(0xC0, 0xE2, 0x82, 0xAC), 2));
+    }
+
+    @Test
+    public void testSampleRate() {
+        GfLogStore store = new GfLogStore(null, new JsonObject());
+        assertTrue(store.isSampled(null));
+        assertTrue(store.isSampled(new Logging()));
+        assertFalse(store.isSampled(logging(null, 0.0)));
+
+        store = new GfLogStore(null, new JsonObject().put("sampleRate", 0.0));
+        assertFalse(store.isSampled(null));
+        assertFalse(store.isSampled(logging(100, null)));
+        assertTrue(store.isSampled(logging(null, 1.0)));
+
+        store = new GfLogStore(null, new JsonObject().put("sampleRate", 0.5));
+        int sampled = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (store.isSampled(null)) {
+                sampled++;
+            }
+        }
+        assertTrue(sampled > 4000 && sampled < 6000, "Sampled: " + sampled);
+    }
+
+    @Test
+    public void testMaxBodySize() {
+        GfLogStore store = new GfLogStore(null, new JsonObject());
+        assertEquals(Integer.MAX_VALUE, store.bodyLimit(null));
+        assertEquals(Integer.MAX_VALUE, store.bodyLimit(new Logging()));
+        assertEquals(10, store.bodyLimit(logging(10, null)));
+
+        store = new GfLogStore(null, new JsonObject().put("maxBodySize", 100));
+        assertEquals(100, store.bodyLimit(null));
+        assertEquals(100, store.bodyLimit(logging(null, 0.5)));
+        assertEquals(10, store.bodyLimit(logging(10, null)));
+        // zero or negative override disables the default limit
+        assertEquals(Integer.MAX_VALUE, store.bodyLimit(logging(0, null)));
+        assertEquals(Integer.MAX_VALUE, store.bodyLimit(logging(-1, null)));
+    }
+
+    private static String append(byte[] bytes, int limit) {
+        StringBuilder builder = new StringBuilder();
+        LogEntry entry = mock(LogEntry.class);
+        when(entry.append(anyChar())).thenAnswer(invocation -> {
+            builder.append(invocation.getArgument(0, Character.class));
+            return entry;
+        });
+        GfLogStore.append(entry, Buffer.buffer(bytes), limit);
+        return builder.toString();
+    }
+
+    private static byte[] bytes(String chars) {
+        return chars.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static Logging logging(Integer maxBodySize, Double sampleRate) {
+        Logging logging = new Logging();
+        logging.setMaxBodySize(maxBodySize);
+        logging.setSampleRate(sampleRate);
+        return logging;
+    }
 }
@@ -6,11 +6,14 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.redisson.Redisson;
+import org.redisson.api.RMap;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
 import org.redisson.config.Config;
 import redis.embedded.RedisServer;
 
 import java.io.IOException;
+import java.util.Map;
 
 class LockServiceTest {
 
@@ -65,4 +68,39 @@ class LockServiceTest {
             lock.close();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testLegacyLock() {
+        LockService legacyService = new LockService(client, null, true);
+
+        LockService.Lock lock = legacyService.lock("legacy");
+        Assertions.assertEquals(2, client.getKeys().countExists("lock:legacy", "lock:{legacy}"));
+        Assertions.assertNull(service.tryLock("legacy"));
+        Assertions.assertNull(legacyService.tryLock("legacy"));
+        lock.close();
+        Assertions.assertEquals(0, client.getKeys().countExists("lock:legacy", "lock:{legacy}"));
+
+        // the lock taken by a node of the earlier version
+        RMap<String, String> legacyLock = client.getMap("lock:legacy", StringCodec.INSTANCE);
+        legacyLock.putAll(Map.of("owner", "1", "deadline", "99999999999999999"));
+        try {
+            Assertions.assertNull(legacyService.tryLock("legacy"));
+            // the new lock is released if the legacy one is busy
+            Assertions.assertEquals(0, client.getKeys().countExists("lock:{legacy}"));
+
+            lock = service.tryLock("legacy");
+            Assertions.assertNotNull(lock);
+            lock.close();
+        } finally {
+            legacyLock.delete();
+        }
+
+        lock = legacyService.tryLock("legacy");
+        Assertions.assertNotNull(lock);
+        lock.close();
+
+        Assertions.assertTrue(service.isScriptLockable("legacy"));
+        Assertions.assertFalse(service.isScriptLockable("{legacy}"));
+        Assertions.assertFalse(legacyService.isScriptLockable("legacy"));
+    }
+}
@@ -97,6 +97,7 @@ public class ApiKeyStoreTest {
                     "syncDelay": 120000,
                     "syncBatch": 4096,
                     "cacheExpiration": 300000,
+                    "ephemeralExpiration": 86400000,
                     "compressionMinSize": 256
                   }
                 """;
@@ -0,0 +1,64 @@
+package com.epam.aidial.core.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NearCacheTest {
+
+    @Test
+    void testPutAndInvalidate() {
+        NearCache<String> cache = new NearCache<>(1024, 60000, String::length);
+
+        cache.put("key", cache.version(), "value", "etag");
+        NearCache.Entry<String> entry = cache.get("key");
+        assertNotNull(entry);
+        assertEquals("value", entry.value());
+        assertEquals("etag", entry.etag());
+        assertTrue(entry.isTrusted());
+
+        cache.invalidate("key");
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    void testSkipPutAfterConcurrentInvalidation() {
+        NearCache<String> cache = new NearCache<>(1024, 60000, String::length);
+
+        long version = cache.version();
+        cache.invalidate("key");
+        cache.put("key", version, "stale", "etag");
+
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    void testPutAfterInvalidationOfOtherKey() {
+        NearCache<String> cache = new NearCache<>(1024, 60000, String::length);
+
+        long version = cache.version();
+        cache.invalidate("other");
+        cache.put("key", version, "value", "etag");
+
+        assertNotNull(cache.get("key"));
+        assertEquals("value", cache.get("key").value());
+    }
+
+    @Test
+    void testRevalidate() {
+        NearCache<String> cache = new NearCache<>(1024, 0, String::length);
+
+        cache.put("key", cache.version(), "value", "etag");
+        NearCache.Entry<String> entry = cache.get("key");
+        assertNotNull(entry);
+        assertFalse(entry.isTrusted());
+
+        cache.revalidate("key", entry);
+        assertNotNull(cache.get("key"));
+        assertEquals("value", cache.get("key").value());
+    }
+}
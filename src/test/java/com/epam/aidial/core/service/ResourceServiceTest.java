@@ -0,0 +1,416 @@
+package com.epam.aidial.core.service;
+
+import com.epam.aidial.core.FileUtil;
+import com.epam.aidial.core.config.Storage;
+import com.epam.aidial.core.data.ResourceItemMetadata;
+import com.epam.aidial.core.data.ResourceType;
+import com.epam.aidial.core.storage.BlobStorage;
+import com.epam.aidial.core.storage.ResourceDescription;
+import com.epam.aidial.core.util.EtagHeader;
+import io.vertx.core.Vertx;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+import org.redisson.Redisson;
+import org.redisson.api.RKeys;
+import org.redisson.api.RMap;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.config.Config;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ResourceServiceTest {
+
+    private static final int MAX_SIZE = 1024;
+    private static final long NEGATIVE_CACHE_EXPIRATION = 60000;
+    private static final int SYNC_SHARDS = 16;
+
+    private static RedisServer server;
+    private static RedissonClient redis;
+    private static Vertx vertx;
+
+    private Path testDir;
+    private BlobStorage blobStorage;
+    private LockService lockService;
+    private ResourceService service;
+
+    @BeforeAll
+    static void init() throws IOException {
+        try {
+            server = RedisServer.newRedisServer()
+                    .port(16372)
+                    .bind("127.0.0.1")
+                    .setting("maxmemory 16M")
+                    .setting("maxmemory-policy volatile-lfu")
+                    .build();
+            server.start();
+
+            Config config = new Config();
+            config.useSingleServer().setAddress("redis://localhost:16372");
+
+            redis = Redisson.create(config);
+            vertx = Vertx.vertx();
+        } catch (Throwable e) {
+            destroy();
+            throw e;
+        }
+    }
+
+    @AfterAll
+    static void destroy() throws IOException {
+        try {
+            if (vertx != null) {
+                vertx.close();
+            }
+
+            if (redis != null) {
+                redis.shutdown();
+            }
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    @BeforeEach
+    void beforeEach() {
+        RKeys keys = redis.getKeys();
+        keys.flushall();
+
+        testDir = FileUtil.baseTestPath(ResourceServiceTest.class);
+        FileUtil.createDir(testDir);
+
+        Properties overrides = new Properties();
+        overrides.setProperty("jclouds.filesystem.basedir", testDir.toString());
+
+        Storage storage = new Storage();
+        storage.setProvider("filesystem");
+        storage.setBucket("test");
+        storage.setCreateBucket(true);
+        storage.setOverrides(overrides);
+
+        blobStorage = spy(new BlobStorage(storage));
+        service = createService(redis);
+    }
+
+    @AfterEach
+    void afterEach() {
+        try {
+            if (service != null) {
+                service.close();
+            }
+
+            if (blobStorage != null) {
+                blobStorage.close();
+            }
+        } finally {
+            FileUtil.deleteDir(testDir);
+        }
+    }
+
+    @Test
+    void testMissingResourceIsRemembered() {
+        ResourceDescription resource = conversation("missing");
+        String blobKey = resource.getAbsoluteFilePath();
+
+        assertNull(service.getResourceMetadata(resource));
+        // the resource appears in the blob storage bypassing the service
+        blobStorage.store(blobKey, "application/json", null, Map.of(), "{}".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(service.getResourceMetadata(resource));
+        assertFalse(service.hasResource(resource));
+        // the miss is read without the lock and confirmed under the lock, the later lookups are served by Redis
+        verify(blobStorage, times(2)).meta(blobKey);
+
+        long ttl = redis.getKeys().remainTimeToLive("conversation:" + blobKey);
+        assertTrue(ttl > 0 && ttl <= NEGATIVE_CACHE_EXPIRATION, "Expiration: " + ttl);
+    }
+
+    @Test
+    void testMissingResourceExpires() throws InterruptedException {
+        ResourceDescription resource = conversation("missing");
+        String blobKey = resource.getAbsoluteFilePath();
+
+        assertNull(service.getResourceMetadata(resource));
+        blobStorage.store(blobKey, "application/json", null, Map.of(), "{}".getBytes(StandardCharsets.UTF_8));
+        redis.getKeys().expire("conversation:" + blobKey, 1, TimeUnit.MILLISECONDS);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!service.hasResource(resource)) {
+            assertTrue(System.currentTimeMillis() < deadline, "The miss is not expired");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void testCreateReplacesMissingResource() {
+        ResourceDescription resource = conversation("created");
+
+        assertNull(service.getResourceMetadata(resource));
+        ResourceItemMetadata metadata = service.putResource(resource, "{}", EtagHeader.NEW_ONLY);
+
+        assertEquals(metadata.getEtag(), service.getResourceMetadata(resource).getEtag());
+        assertEquals("{}", service.getResource(resource));
+    }
+
+    @Test
+    void testUploadReplacesMissingResource() {
+        ResourceDescription file = file("uploaded.txt");
+
+        assertNull(service.getResourceMetadata(file));
+        // the file is larger than the max size, so it is written to the blob storage directly
+        service.putFile(file, new byte[MAX_SIZE + 1], EtagHeader.NEW_ONLY, "text/plain");
+
+        assertNotNull(service.getResourceMetadata(file));
+        assertTrue(service.hasResource(file));
+    }
+
+    @Test
+    void testUploadDuringMetadataRead() {
+        ResourceDescription file = file("uploaded.txt");
+        AtomicBoolean upload = new AtomicBoolean(true);
+
+        doAnswer(invocation -> {
+            BlobMetadata metadata = (BlobMetadata) invocation.callRealMethod();
+            if (upload.getAndSet(false)) {
+                // the upload completes after the reader finds the file missing, but before the reader remembers the miss
+                service.putFile(file, new byte[MAX_SIZE + 1], EtagHeader.NEW_ONLY, "text/plain");
+            }
+            return metadata;
+        }).when(blobStorage).meta(file.getAbsoluteFilePath());
+
+        assertNotNull(service.getResourceMetadata(file));
+        assertNotNull(service.getResourceMetadata(file));
+        assertTrue(service.hasResource(file));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetAfterPutDuringLoad() throws Exception {
+        ResourceDescription resource = conversation("conversation");
+        String redisKey = "conversation:" + resource.getAbsoluteFilePath();
+        AtomicBoolean stall = new AtomicBoolean();
+        CountDownLatch read = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // the first read of the resource after the stall is armed returns the fields only after the release
+        RedissonClient client = mock(RedissonClient.class, AdditionalAnswers.delegatesTo(redis));
+        doAnswer(invocation -> {
+            RMap<String, byte[]> map = redis.getMap(invocation.getArgument(0, String.class), invocation.getArgument(1, Codec.class));
+            if (!stall.getAndSet(false)) {
+                return map;
+            }
+
+            RMap<String, byte[]> stalled = mock(RMap.class, AdditionalAnswers.delegatesTo(map));
+            doAnswer(getAll -> {
+                Map<String, byte[]> fields = map.getAll(getAll.getArgument(0));
+                read.countDown();
+                release.await();
+                return fields;
+            }).when(stalled).getAll(any());
+            return stalled;
+        }).when(client).getMap(eq(redisKey), any(Codec.class));
+
+        service.close();
+        service = createService(client);
+        service.putResource(resource, "{\"version\":1}", EtagHeader.ANY);
+
+        stall.set(true);
+        CompletableFuture<String> load = CompletableFuture.supplyAsync(() -> service.getResource(resource));
+        read.await();
+        service.putResource(resource, "{\"version\":2}", EtagHeader.ANY);
+
+        try {
+            // the get must not join the load which has read the resource before the put
+            CompletableFuture<String> get = CompletableFuture.supplyAsync(() -> service.getResource(resource));
+            assertEquals("{\"version\":2}", get.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals("{\"version\":1}", load.get());
+    }
+
+    @Test
+    void testComputeRetriesConflictingCommit() {
+        ResourceDescription resource = conversation("computed");
+        service.putResource(resource, "1", EtagHeader.ANY);
+        AtomicInteger calls = new AtomicInteger();
+
+        service.computeResource(resource, EtagHeader.ANY, body -> {
+            if (calls.incrementAndGet() == 1) {
+                // the resource is changed after the function has read it, so the first commit must fail
+                service.putResource(resource, "2", EtagHeader.ANY);
+            }
+            return body + "+";
+        });
+
+        assertEquals(2, calls.get());
+        assertEquals("2+", service.getResource(resource));
+    }
+
+    @Test
+    void testComputeFallsBackToLockAfterConflicts() {
+        ResourceDescription resource = conversation("computed");
+        String redisKey = "conversation:" + resource.getAbsoluteFilePath();
+        service.putResource(resource, "0", EtagHeader.ANY);
+        AtomicInteger calls = new AtomicInteger();
+
+        service.computeResource(resource, EtagHeader.ANY, body -> {
+            int call = calls.incrementAndGet();
+            LockService.Lock lock = lockService.tryLock(redisKey);
+            if (lock == null) {
+                // the last attempt is made under the lock and nobody can change the resource
+                return body + "+";
+            }
+
+            lock.close();
+            service.putResource(resource, Integer.toString(call), EtagHeader.ANY);
+            return body + "+";
+        });
+
+        // every optimistic attempt conflicts
+        assertEquals(5, calls.get());
+        assertEquals("4+", service.getResource(resource));
+    }
+
+    @Test
+    void testComputeRespectsLock() {
+        ResourceDescription resource = conversation("computed");
+        String redisKey = "conversation:" + resource.getAbsoluteFilePath();
+        service.putResource(resource, "0", EtagHeader.ANY);
+        LockService.Lock lock = lockService.lock(redisKey);
+        AtomicBoolean locked = new AtomicBoolean(true);
+        AtomicInteger calls = new AtomicInteger();
+
+        try {
+            service.computeResource(resource, EtagHeader.ANY, body -> {
+                if (calls.incrementAndGet() == 4 && locked.getAndSet(false)) {
+                    // the last optimistic attempt commits once the lock is released
+                    lock.close();
+                }
+                return body + "+";
+            });
+        } finally {
+            if (locked.getAndSet(false)) {
+                lock.close();
+            }
+        }
+
+        assertEquals(4, calls.get());
+        assertEquals("0+", service.getResource(resource));
+    }
+
+    @Test
+    void testComputeLocksResourceMissingInRedis() {
+        ResourceDescription resource = conversation("computed");
+        String redisKey = "conversation:" + resource.getAbsoluteFilePath();
+        AtomicInteger calls = new AtomicInteger();
+
+        // a new resource needs a blob stub, so it's created under the lock
+        service.computeResource(resource, EtagHeader.ANY, body -> {
+            calls.incrementAndGet();
+            assertNull(lockService.tryLock(redisKey));
+            return "created";
+        });
+
+        assertEquals(1, calls.get());
+        assertEquals("created", service.getResource(resource));
+    }
+
+    @Test
+    void testComputeWithLegacyLocks() {
+        ResourceDescription resource = conversation("computed");
+        String redisKey = "conversation:" + resource.getAbsoluteFilePath();
+        service.close();
+        service = createService(redis, new LockService(redis, null, true));
+        service.putResource(resource, "0", EtagHeader.ANY);
+        AtomicInteger calls = new AtomicInteger();
+
+        // the commit script can't check the legacy lock, so the resource is computed under the lock
+        service.computeResource(resource, EtagHeader.ANY, body -> {
+            calls.incrementAndGet();
+            assertNull(lockService.tryLock(redisKey));
+            assertEquals(1, redis.getKeys().countExists("lock:" + redisKey));
+            return body + "+";
+        });
+
+        assertEquals(1, calls.get());
+        assertEquals("0+", service.getResource(resource));
+    }
+
+    @Test
+    void testWriteQueuesResourceForSync() {
+        ResourceDescription resource = conversation("queued");
+        String redisKey = "conversation:" + resource.getAbsoluteFilePath();
+
+        service.putResource(resource, "1", EtagHeader.ANY);
+        assertTrue(redis.getMap(redisKey).isExists());
+        String queue = findQueue(redisKey);
+        assertNotNull(queue, "The resource is not queued");
+
+        // the optimistic commit queues the resource as well
+        redis.getScoredSortedSet(queue, StringCodec.INSTANCE).remove(redisKey);
+        service.computeResource(resource, EtagHeader.ANY, body -> body + "+");
+        assertEquals("1+", service.getResource(resource));
+        assertEquals(queue, findQueue(redisKey));
+    }
+
+    private static String findQueue(String redisKey) {
+        for (int shard = 0; shard < SYNC_SHARDS; shard++) {
+            String queue = (shard == 0) ? "resource:queue" : "resource:queue:" + shard;
+            if (redis.getScoredSortedSet(queue, StringCodec.INSTANCE).contains(redisKey)) {
+                return queue;
+            }
+        }
+        return null;
+    }
+
+    private ResourceService createService(RedissonClient client) {
+        return createService(client, new LockService(client, null));
+    }
+
+    private ResourceService createService(RedissonClient client, LockService lockService) {
+        this.lockService = lockService;
+        return new ResourceService(vertx, client, blobStorage, lockService,
+                MAX_SIZE, 60000, 120000, 4096, SYNC_SHARDS, 8, 300000, 86400000, NEGATIVE_CACHE_EXPIRATION, 256, 0, 5000, null);
+    }
+
+    private static ResourceDescription conversation(String name) {
+        return ResourceDescription.fromDecoded(ResourceType.CONVERSATION, "bucket", "Users/user/", name);
+    }
+
+    private static ResourceDescription file(String name) {
+        return ResourceDescription.fromDecoded(ResourceType.FILE, "bucket", "Users/user/", name);
+    }
+}
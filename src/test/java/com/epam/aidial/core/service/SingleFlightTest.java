@@ -0,0 +1,71 @@
+package com.epam.aidial.core.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SingleFlightTest {
+
+    @Test
+    void testConcurrentLoadsAreCoalesced() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> flight.load("key", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "value";
+        }));
+
+        started.await();
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> flight.load("key", () -> {
+            calls.incrementAndGet();
+            return "other";
+        }));
+
+        while (flight.coalesced() == 0) {
+            Thread.onSpinWait();
+        }
+
+        release.countDown();
+        assertEquals("value", leader.get());
+        assertEquals("value", follower.get());
+        assertEquals(1, calls.get());
+        assertEquals(1, flight.loads());
+        assertEquals(1, flight.coalesced());
+    }
+
+    @Test
+    void testLoadAfterCompletionIsNotCached() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        assertEquals("value1", flight.load("key", () -> "value1"));
+        assertEquals("value2", flight.load("key", () -> "value2"));
+        assertEquals(2, flight.loads());
+        assertEquals(0, flight.coalesced());
+    }
+
+    @Test
+    void testErrorIsPropagated() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        assertThrows(IllegalStateException.class, () -> flight.load("key", () -> {
+            throw new IllegalStateException("failed");
+        }));
+        assertEquals("value", flight.load("key", () -> "value"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.epam.aidial.core.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncPartitionerTest {
+
+    @Test
+    void testSingleNodeOwnsAllShards() {
+        List<Integer> owned = SyncPartitioner.owned("node1", List.of("node1"), 16);
+        assertEquals(IntStream.range(0, 16).boxed().toList(), owned);
+    }
+
+    @Test
+    void testEachShardHasSingleOwner() {
+        List<String> nodes = List.of("node1", "node2", "node3");
+        Set<Integer> shards = new HashSet<>();
+        int total = 0;
+
+        for (String node : nodes) {
+            List<Integer> owned = SyncPartitioner.owned(node, nodes, 64);
+            assertFalse(owned.isEmpty());
+            shards.addAll(owned);
+            total += owned.size();
+        }
+
+        assertEquals(64, total);
+        assertEquals(64, shards.size());
+    }
+
+    @Test
+    void testLeavingNodeMovesOnlyItsShards() {
+        List<Integer> before = SyncPartitioner.owned("node1", List.of("node1", "node2", "node3"), 64);
+        List<Integer> after = SyncPartitioner.owned("node1", List.of("node1", "node2"), 64);
+        assertTrue(after.containsAll(before));
+    }
+}
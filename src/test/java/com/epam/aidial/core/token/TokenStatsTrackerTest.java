@@ -2,18 +2,13 @@ package com.epam.aidial.core.token;
 
 import com.epam.aidial.core.ProxyContext;
 import com.epam.aidial.core.config.ApiKeyData;
-import com.epam.aidial.core.service.LockService;
-import com.epam.aidial.core.service.ResourceService;
-import com.epam.aidial.core.storage.BlobStorage;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
-import io.vertx.core.json.JsonObject;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.redisson.Redisson;
@@ -44,10 +39,6 @@ public class TokenStatsTrackerTest {
     @Mock
     private Vertx vertx;
 
-    @Mock
-    private BlobStorage blobStorage;
-
-    @InjectMocks
     private TokenStatsTracker tracker;
 
     @BeforeAll
@@ -87,19 +78,7 @@ public class TokenStatsTrackerTest {
         for (String key : keys.getKeys()) {
             keys.delete(key);
         }
-        LockService lockService = new LockService(redissonClient, null);
-        String resourceConfig = """
-                  {
-                    "maxSize" : 1048576,
-                    "syncPeriod": 60000,
-                    "syncDelay": 120000,
-                    "syncBatch": 4096,
-                    "cacheExpiration": 300000,
-                    "compressionMinSize": 256
-                  }
-                """;
-        ResourceService resourceService = new ResourceService(vertx, redissonClient, blobStorage, lockService, new JsonObject(resourceConfig), null);
-        tracker = new TokenStatsTracker(vertx, resourceService);
+        tracker = new TokenStatsTracker(vertx, redissonClient, null, 86400000);
     }
 
     /**
@@ -7,13 +7,16 @@ import com.epam.aidial.core.util.HttpStatus;
 import org.apache.commons.lang3.mutable.MutableInt;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class LoadBalancerTest {
 
@@ -92,6 +95,122 @@ public class LoadBalancerTest {
         assertEquals(118, usage.get("endpoint4").getValue());
     }
 
+    @Test
+    void testWeightedLoadBalancerWithLargeCoprimeWeights() {
+        List<Upstream> upstreams = List.of(
+                new Upstream("endpoint1", null, null, Integer.MAX_VALUE, 0),
+                new Upstream("endpoint2", null, null, Integer.MAX_VALUE - 1, 0),
+                new Upstream("endpoint3", null, null, 1, 0)
+        );
+        WeightedRoundRobinBalancer balancer = new WeightedRoundRobinBalancer("model1", upstreams);
+
+        Map<String, MutableInt> usage = new HashMap<>();
+        usage.put("endpoint1", new MutableInt(0));
+        usage.put("endpoint2", new MutableInt(0));
+        usage.put("endpoint3", new MutableInt(0));
+
+        for (int i = 0; i < 1000; i++) {
+            UpstreamState upstream = balancer.next();
+            assertNotNull(upstream);
+            usage.get(upstream.getUpstream().getEndpoint()).increment();
+        }
+
+        assertEquals(500, usage.get("endpoint1").getValue());
+        assertEquals(500, usage.get("endpoint2").getValue());
+        assertEquals(0, usage.get("endpoint3").getValue());
+    }
+
+    @Test
+    void testWeightedLoadBalancerSkipsUnavailableUpstream() {
+        List<Upstream> upstreams = List.of(
+                new Upstream("endpoint1", null, null, 1, 0),
+                new Upstream("endpoint2", null, null, 1, 0),
+                new Upstream("endpoint3", null, null, 2, 0)
+        );
+        WeightedRoundRobinBalancer balancer = new WeightedRoundRobinBalancer("model1", upstreams);
+
+        UpstreamState upstream = balancer.next();
+        assertNotNull(upstream);
+        assertEquals("endpoint3", upstream.getUpstream().getEndpoint());
+        upstream.failed(HttpStatus.TOO_MANY_REQUESTS, 100);
+
+        Map<String, MutableInt> usage = new HashMap<>();
+        usage.put("endpoint1", new MutableInt(0));
+        usage.put("endpoint2", new MutableInt(0));
+
+        for (int i = 0; i < 10; i++) {
+            upstream = balancer.next();
+            assertNotNull(upstream);
+            usage.get(upstream.getUpstream().getEndpoint()).increment();
+        }
+
+        assertEquals(5, usage.get("endpoint1").getValue());
+        assertEquals(5, usage.get("endpoint2").getValue());
+    }
+
+    @Test
+    void testWeightedLoadBalancerConcurrentCalls() throws Exception {
+        List<Upstream> upstreams = List.of(
+                new Upstream("endpoint1", null, null, 1, 0),
+                new Upstream("endpoint2", null, null, 3, 0)
+        );
+        WeightedRoundRobinBalancer balancer = new WeightedRoundRobinBalancer("model1", upstreams);
+        AtomicInteger usage = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    if (balancer.next().getUpstream().getEndpoint().equals("endpoint1")) {
+                        usage.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1000, usage.get());
+    }
+
+    @Test
+    void testPowerOfTwoChoicesBalancerPrefersFastUpstream() {
+        List<Upstream> upstreams = List.of(
+                new Upstream("endpoint1", null, null, 1, 0),
+                new Upstream("endpoint2", null, null, 1, 0)
+        );
+        PowerOfTwoChoicesBalancer balancer = new PowerOfTwoChoicesBalancer("model1", upstreams);
+
+        Map<String, UpstreamState> states = new HashMap<>();
+        while (states.size() < 2) {
+            UpstreamState upstream = balancer.next();
+            assertNotNull(upstream);
+            states.put(upstream.getUpstream().getEndpoint(), upstream);
+        }
+
+        states.get("endpoint1").started();
+        states.get("endpoint1").finished(1000);
+        states.get("endpoint2").started();
+        states.get("endpoint2").finished(10);
+
+        int fast = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (balancer.next().getUpstream().getEndpoint().equals("endpoint2")) {
+                fast++;
+            }
+        }
+        // the slow upstream is picked only if it's drawn twice
+        assertTrue(fast > 650, "fast upstream is picked " + fast + " times");
+
+        states.get("endpoint2").failed(HttpStatus.TOO_MANY_REQUESTS, 100);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("endpoint1", balancer.next().getUpstream().getEndpoint());
+        }
+    }
+
     @Test
     void testTieredLoadBalancer() {
         List<Upstream> upstreams = List.of(
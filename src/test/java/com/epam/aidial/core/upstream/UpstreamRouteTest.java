@@ -1,5 +1,6 @@
 package com.epam.aidial.core.upstream;
 
+import com.epam.aidial.core.config.Application;
 import com.epam.aidial.core.config.Model;
 import com.epam.aidial.core.config.Upstream;
 import com.epam.aidial.core.util.HttpStatus;
@@ -9,6 +10,7 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -100,4 +102,77 @@ public class UpstreamRouteTest {
         assertNull(route.get());
         assertEquals(3, route.used());
     }
+
+    @Test
+    void testCustomApplicationStateIsCached() {
+        Application application = new Application();
+        application.setName("applications/bucket/app");
+        application.setEndpoint("http://app1/chat/completions");
+
+        UpstreamRoute route = upstreamRouteProvider.get(new DeploymentUpstreamProvider(application));
+        assertNotNull(route.get());
+        route.fail(HttpStatus.TOO_MANY_REQUESTS, 30);
+        route.next();
+        assertNull(route.get());
+
+        // the application is in backoff for the next request
+        route = upstreamRouteProvider.get(new DeploymentUpstreamProvider(application));
+        assertNull(route.get());
+
+        // the endpoint is changed, the state is reset
+        application.setEndpoint("http://app2/chat/completions");
+        route = upstreamRouteProvider.get(new DeploymentUpstreamProvider(application));
+        assertNotNull(route.get());
+        route.fail(HttpStatus.TOO_MANY_REQUESTS, 30);
+
+        route = upstreamRouteProvider.get(new DeploymentUpstreamProvider(application));
+        assertNull(route.get());
+
+        // the application is updated, the state is reset
+        upstreamRouteProvider.evict("applications/bucket/app");
+        route = upstreamRouteProvider.get(new DeploymentUpstreamProvider(application));
+        assertNotNull(route.get());
+    }
+
+    @Test
+    void testHedgeRoute() {
+        Model model = new Model();
+        model.setName("model1");
+        model.setUpstreams(List.of(
+                new Upstream("endpoint1", null, null, 1, 0),
+                new Upstream("endpoint2", null, null, 1, 0),
+                new Upstream("endpoint3", null, null, 1, 1)
+        ));
+
+        UpstreamRoute route = upstreamRouteProvider.get(new DeploymentUpstreamProvider(model));
+        UpstreamRoute hedgeRoute = route.hedge();
+
+        assertNotNull(hedgeRoute);
+        assertTrue(hedgeRoute.available());
+        assertNotEquals(route.get(), hedgeRoute.get());
+        assertEquals(0, hedgeRoute.get().getTier());
+
+        // the other upstream of the tier is unavailable, the lower tier is not used for hedging
+        hedgeRoute.fail(HttpStatus.TOO_MANY_REQUESTS, 30);
+        assertNull(route.hedge());
+    }
+
+    @Test
+    void testLatencyPercentile() {
+        Model model = new Model();
+        model.setName("model1");
+        model.setUpstreams(List.of(new Upstream("endpoint1", null, null, 1, 1)));
+
+        assertEquals(-1, upstreamRouteProvider.get(new DeploymentUpstreamProvider(model)).latencyPercentile(95));
+
+        for (int i = 0; i < 100; i++) {
+            UpstreamRoute route = upstreamRouteProvider.get(new DeploymentUpstreamProvider(model));
+            route.start();
+            route.succeed();
+        }
+
+        UpstreamRoute route = upstreamRouteProvider.get(new DeploymentUpstreamProvider(model));
+        long latency = route.latencyPercentile(95);
+        assertTrue(latency >= 0 && latency < 1000);
+    }
 }
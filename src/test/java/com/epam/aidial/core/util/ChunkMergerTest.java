@@ -0,0 +1,61 @@
+package com.epam.aidial.core.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ChunkMergerTest {
+
+    @Test
+    public void testMerge() throws IOException {
+        try (InputStream in = ChunkMergerTest.class.getResourceAsStream("/merge_chunks-test-cases.json")) {
+            ArrayNode tests = (ArrayNode) ProxyUtil.MAPPER.readTree(in);
+            for (JsonNode test : tests) {
+                ArrayNode chunks = (ArrayNode) test.get("chunks");
+                JsonNode error = test.get("error");
+                JsonNode res = test.get("result");
+                JsonNode desc = test.get("description");
+                if (error != null) {
+                    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> merge(chunks), desc == null ? "Fail" : desc.asText());
+                    assertEquals(e.getMessage(), error.asText(), desc == null ? "Fail" : desc.asText());
+                } else {
+                    assertEquals(res, merge(chunks), desc == null ? "Fail" : desc.asText());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMergeManyDeltas() {
+        ChunkMerger merger = new ChunkMerger();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            ObjectNode delta = ProxyUtil.MAPPER.createObjectNode();
+            delta.put("index", 0);
+            delta.putObject("delta").put("content", "token" + i);
+            ArrayNode choices = ProxyUtil.MAPPER.createArrayNode().add(delta);
+            merger.merge(choices);
+            expected.append("token").append(i);
+        }
+
+        JsonNode result = merger.result();
+        assertEquals(expected.toString(), result.get(0).get("delta").get("content").textValue());
+        assertNull(result.get(0).get("index"));
+    }
+
+    private static JsonNode merge(ArrayNode chunks) {
+        ChunkMerger merger = new ChunkMerger();
+        for (JsonNode chunk : chunks) {
+            merger.merge(chunk);
+        }
+        return merger.result();
+    }
+}
@@ -0,0 +1,101 @@
+package com.epam.aidial.core.util;
+
+import com.epam.aidial.core.config.FlushPolicy;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class CoalescingWriteStreamTest {
+
+    @Mock
+    private Vertx vertx;
+
+    @Mock
+    private WriteStream<Buffer> stream;
+
+    private CoalescingWriteStream coalescingStream;
+
+    @BeforeEach
+    public void beforeEach() {
+        FlushPolicy policy = new FlushPolicy();
+        policy.setDelay(5);
+        policy.setSize(10);
+        coalescingStream = new CoalescingWriteStream(vertx, stream, policy);
+    }
+
+    @Test
+    public void testFirstChunkIsWrittenRightAway() {
+        coalescingStream.write(Buffer.buffer("first"));
+        verify(stream).write(Buffer.buffer("first"));
+        verify(vertx, never()).setTimer(anyLong(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testChunksAreFlushedByTimer() {
+        ArgumentCaptor<Handler<Long>> timer = ArgumentCaptor.forClass(Handler.class);
+        when(vertx.setTimer(eq(5L), timer.capture())).thenReturn(1L);
+
+        coalescingStream.write(Buffer.buffer("first"));
+        coalescingStream.write(Buffer.buffer("a"));
+        coalescingStream.write(Buffer.buffer("b"));
+        verify(stream).write(Buffer.buffer("first"));
+        verifyNoMoreInteractions(stream);
+
+        timer.getValue().handle(1L);
+        verify(stream).write(Buffer.buffer("ab"));
+
+        coalescingStream.flush();
+        verifyNoMoreInteractions(stream);
+    }
+
+    @Test
+    public void testChunksAreFlushedBySize() {
+        when(vertx.setTimer(eq(5L), any())).thenReturn(1L);
+
+        coalescingStream.write(Buffer.buffer("first"));
+        coalescingStream.write(Buffer.buffer("12345"));
+        coalescingStream.write(Buffer.buffer("67890"));
+        verify(stream).write(Buffer.buffer("1234567890"));
+        verify(vertx).cancelTimer(1L);
+
+        coalescingStream.write(Buffer.buffer("last"));
+        coalescingStream.flush();
+        verify(stream).write(Buffer.buffer("last"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testChunksAreFlushedByTimerOnlyWithoutSize() {
+        FlushPolicy policy = new FlushPolicy();
+        policy.setDelay(5);
+        coalescingStream = new CoalescingWriteStream(vertx, stream, policy);
+        ArgumentCaptor<Handler<Long>> timer = ArgumentCaptor.forClass(Handler.class);
+        when(vertx.setTimer(eq(5L), timer.capture())).thenReturn(1L);
+
+        coalescingStream.write(Buffer.buffer("first"));
+        coalescingStream.write(Buffer.buffer("a"));
+        coalescingStream.write(Buffer.buffer("b"));
+        verify(stream).write(Buffer.buffer("first"));
+        verifyNoMoreInteractions(stream);
+
+        timer.getValue().handle(1L);
+        verify(stream).write(Buffer.buffer("ab"));
+    }
+}
@@ -9,6 +9,7 @@ import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -71,4 +72,27 @@ public class EventStreamParserTest {
         parser.parse(Buffer.buffer("\ndata: ops one more data\n"));
         assertEquals(List.of("{\"name\":\"assdsdsdsa 你好。답답해 123 \"}", "{\"value\":56,\"text\":\"[DONE]\"}"), responses);
     }
+
+    @Test
+    public void testHandleChunkWithEventKeys() {
+        BaseResponseFunction usageFn = new BaseResponseFunction(null, null) {
+            @Override
+            public Future<Void> apply(ObjectNode json) {
+                responses.add(json.toString());
+                return Future.succeededFuture();
+            }
+
+            @Override
+            public Set<String> eventKeys() {
+                return Set.of("usage");
+            }
+        };
+        EventStreamParser parser = new EventStreamParser(20, usageFn);
+        parser.parse(Buffer.buffer("data: {\"choices\": [{\"index\": 0, \"delta\": {\"content\": \"Hi\"}}]}\n\n"));
+        parser.parse(Buffer.buffer("data: {\"choices\": [], \"us"));
+        parser.parse(Buffer.buffer("age\": {\"total_tokens\": 3}}\n\n"));
+        parser.parse(Buffer.buffer("data: not a json and not an interesting event\n\n"));
+        parser.parse(Buffer.buffer("data: [DONE]\n\n"));
+        assertEquals(List.of("{\"choices\":[],\"usage\":{\"total_tokens\":3}}"), responses);
+    }
 }
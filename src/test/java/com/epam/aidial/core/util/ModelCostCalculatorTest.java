@@ -5,6 +5,7 @@ import com.epam.aidial.core.config.Model;
 import com.epam.aidial.core.config.ModelType;
 import com.epam.aidial.core.config.Pricing;
 import com.epam.aidial.core.token.TokenUsage;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.vertx.core.buffer.Buffer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -15,6 +16,8 @@ import java.math.BigDecimal;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SuppressWarnings("checkstyle:LineLength")
@@ -309,4 +312,54 @@ public class ModelCostCalculatorTest {
 
         assertEquals(new BigDecimal("0.4"), ModelCostCalculator.calculate(context));
     }
+
+    @Test
+    public void testCalculate_CountedLengthCost() {
+        Model model = new Model();
+        model.setType(ModelType.CHAT);
+        Pricing pricing = new Pricing();
+        pricing.setPrompt("0.1");
+        pricing.setCompletion("0.5");
+        pricing.setUnit("char_without_whitespace");
+        model.setPricing(pricing);
+        when(context.getDeployment()).thenReturn(model);
+
+        assertEquals(new BigDecimal("6.5"), ModelCostCalculator.calculate(context, 15, 10));
+    }
+
+    @Test
+    public void testCalculate_CountedLengthCost_PromptFromRequestBody() {
+        Model model = new Model();
+        model.setType(ModelType.CHAT);
+        Pricing pricing = new Pricing();
+        pricing.setPrompt("0.1");
+        pricing.setCompletion("0.5");
+        pricing.setUnit("char_without_whitespace");
+        model.setPricing(pricing);
+        when(context.getDeployment()).thenReturn(model);
+        when(context.getRequestBody()).thenReturn(Buffer.buffer("""
+                {"messages": [{"role": "system", "content": "a b"}, {"role": "user", "content": "cd e"}], "stream": true}
+                """));
+
+        assertEquals(new BigDecimal("5.5"), ModelCostCalculator.calculate(context, null, 10));
+        // the captured response may be truncated, so the completion length counted on the fly is used
+        verify(context, never()).getResponseBody();
+    }
+
+    @Test
+    public void testCountLength() throws Exception {
+        ObjectNode request = (ObjectNode) ProxyUtil.MAPPER.readTree("""
+                {"messages": [{"role": "system", "content": "a b"}, {"role": "user", "content": "cd e"}]}
+                """);
+        assertEquals(5, ModelCostCalculator.getPromptLength(ModelType.CHAT, request));
+
+        ObjectNode chunk = (ObjectNode) ProxyUtil.MAPPER.readTree("""
+                {"choices": [{"index": 0, "delta": {"content": "f g"}}]}
+                """);
+        assertEquals(2, ModelCostCalculator.getCompletionLength(chunk, true));
+        assertEquals(0, ModelCostCalculator.getCompletionLength(chunk, false));
+
+        ObjectNode noChoices = (ObjectNode) ProxyUtil.MAPPER.readTree("{\"usage\": {}}");
+        assertEquals(0, ModelCostCalculator.getCompletionLength(noChoices, true));
+    }
 }
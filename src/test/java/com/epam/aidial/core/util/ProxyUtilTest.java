@@ -9,13 +9,17 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -450,4 +454,47 @@ public class ProxyUtilTest {
 
     }
 
+    @Test
+    public void testReadShallowTree() throws IOException {
+        String content = """
+                {
+                  "model": "gpt",
+                  "stream": true,
+                  "temperature": 0.5,
+                  "messages": [{"role": "user", "content": "hi"}],
+                  "addons": {"name": "addon"}
+                }
+                """;
+        ObjectNode tree = ProxyUtil.readShallowTree(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), Set.of("custom_content"));
+
+        assertNotNull(tree);
+        assertEquals("gpt", tree.get("model").asText());
+        assertTrue(tree.get("stream").asBoolean());
+        assertEquals(0.5, tree.get("temperature").asDouble());
+        assertTrue(tree.get("messages").isArray());
+        assertTrue(tree.get("messages").isEmpty());
+        assertTrue(tree.get("addons").isObject());
+        assertTrue(tree.get("addons").isEmpty());
+    }
+
+    @Test
+    public void testReadShallowTree_DeepField() throws IOException {
+        String content = """
+                {
+                  "messages": [{"role": "user", "content": "hi", "custom_content": {"attachments": []}}]
+                }
+                """;
+        ObjectNode tree = ProxyUtil.readShallowTree(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), Set.of("custom_content"));
+        assertNull(tree);
+    }
+
+    @Test
+    public void testReadShallowTree_Invalid() {
+        assertThrows(IOException.class, () -> ProxyUtil.readShallowTree(
+                new ByteArrayInputStream("{\"messages\": [".getBytes(StandardCharsets.UTF_8)), Set.of()));
+        assertThrows(IOException.class, () -> ProxyUtil.readShallowTree(
+                new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)), Set.of()));
+        assertThrows(IOException.class, () -> ProxyUtil.readShallowTree(
+                new ByteArrayInputStream("{\"model\": \"gpt\"} {".getBytes(StandardCharsets.UTF_8)), Set.of()));
+    }
 }